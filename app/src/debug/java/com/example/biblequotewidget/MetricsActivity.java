@@ -0,0 +1,41 @@
+package com.example.biblequotewidget;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.widget.TextView;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Shows the update pipeline metrics, the same as dumpsys on
+ * {@link QuoteUpdateService}. Only in debug builds. Tap to refresh.
+ */
+public class MetricsActivity extends Activity {
+
+    private TextView metricsText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        metricsText = findViewById(R.id.metrics_text);
+        metricsText.setOnClickListener(v -> showMetrics());
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    private void showMetrics() {
+        StringWriter text = new StringWriter();
+        PrintWriter writer = new PrintWriter(text);
+        QuoteMetrics.dump(writer);
+        writer.println("verse cache: " + VerseCache.getInstance(this).getStats());
+        writer.flush();
+        metricsText.setText(text.toString());
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.biblequotewidget;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The single bounded thread pool used for background work in the app
+ * process. Threads time out when idle, so a widget process that is only
+ * woken for a refresh does not keep threads alive afterwards.
+ *
+ * Work that must happen one task at a time, such as index updates, gets a
+ * {@link #serial()} executor on top of the pool rather than a thread of its
+ * own. The only other pool in the app is the HTTP client's, for hedged
+ * attempts that pool threads block waiting on.
+ */
+public final class AppExecutors {
+    private static final String TAG = "AppExecutors";
+    private static final int POOL_SIZE = 3;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor BACKGROUND = createBackgroundExecutor();
+
+    private AppExecutors() {
+    }
+
+    private static ThreadPoolExecutor createBackgroundExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "quote-bg-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static ThreadPoolExecutor background() {
+        return BACKGROUND;
+    }
+
+    /**
+     * Run a task on the background pool
+     * @return false if the queue is full and the task was dropped
+     */
+    public static boolean execute(Runnable task) {
+        try {
+            BACKGROUND.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Background queue full, dropping task");
+            return false;
+        }
+    }
+
+    /**
+     * Run a task on the background pool, or on the calling thread if the
+     * queue is full. For writes that must not be lost.
+     */
+    public static void executeOrRun(Runnable task) {
+        try {
+            BACKGROUND.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Background queue full, running task on the calling thread");
+            task.run();
+        }
+    }
+
+    /**
+     * @return An executor that runs its tasks one at a time and in order on
+     * the background pool. Tasks are never dropped.
+     */
+    public static Executor serial() {
+        return new SerialExecutor();
+    }
+
+    private static final class SerialExecutor implements Executor {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private boolean running;
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (this) {
+                tasks.offer(task);
+                if (running) {
+                    return;
+                }
+                running = true;
+            }
+            executeOrRun(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Serial task failed", e);
+                }
+            }
+        }
+    }
+}
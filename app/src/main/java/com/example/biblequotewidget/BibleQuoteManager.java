@@ -1,96 +1,49 @@
 package com.example.biblequotewidget;
 
 import android.content.Context;
+import android.util.JsonReader;
 import android.util.Log;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class BibleQuoteManager {
     private static final String TAG = "BibleQuoteManager";
     private static final String BASE_URL = "https://bible-api.com/";
     private static final String TRANSLATION = "kjv";
+    // Most verses asked for in one passage request
+    private static final int MAX_PASSAGE_VERSES = 16;
     
-    // Theme to Bible books mapping
-    private static final Map<String, List<String>> THEME_TO_BOOKS = new HashMap<>();
-    
-    static {
-        // Hope theme - books with verses about hope
-        List<String> hopeBooks = new ArrayList<>();
-        hopeBooks.add("ROM"); // Romans
-        hopeBooks.add("PSA"); // Psalms
-        hopeBooks.add("ISA"); // Isaiah
-        hopeBooks.add("JER"); // Jeremiah
-        THEME_TO_BOOKS.put("hope", hopeBooks);
-        
-        // Love theme - books with verses about love
-        List<String> loveBooks = new ArrayList<>();
-        loveBooks.add("1CO"); // 1 Corinthians
-        loveBooks.add("1JN"); // 1 John
-        loveBooks.add("SNG"); // Song of Solomon
-        loveBooks.add("JHN"); // John
-        THEME_TO_BOOKS.put("love", loveBooks);
-        
-        // Strength theme - books with verses about strength
-        List<String> strengthBooks = new ArrayList<>();
-        strengthBooks.add("PSA"); // Psalms
-        strengthBooks.add("ISA"); // Isaiah
-        strengthBooks.add("PHP"); // Philippians
-        strengthBooks.add("2CO"); // 2 Corinthians
-        THEME_TO_BOOKS.put("strength", strengthBooks);
-        
-        // Motivation theme - books with verses about motivation and encouragement
-        List<String> motivationBooks = new ArrayList<>();
-        motivationBooks.add("PHP"); // Philippians
-        motivationBooks.add("JOS"); // Joshua
-        motivationBooks.add("2TI"); // 2 Timothy
-        motivationBooks.add("HEB"); // Hebrews
-        THEME_TO_BOOKS.put("motivation", motivationBooks);
-        
-        // Wisdom theme - books with verses about wisdom
-        List<String> wisdomBooks = new ArrayList<>();
-        wisdomBooks.add("PRO"); // Proverbs
-        wisdomBooks.add("ECC"); // Ecclesiastes
-        wisdomBooks.add("JOB"); // Job
-        wisdomBooks.add("JAM"); // James
-        THEME_TO_BOOKS.put("wisdom", wisdomBooks);
-        
-        // Comfort theme - books with verses about comfort
-        List<String> comfortBooks = new ArrayList<>();
-        comfortBooks.add("PSA"); // Psalms
-        comfortBooks.add("ISA"); // Isaiah
-        comfortBooks.add("MAT"); // Matthew
-        comfortBooks.add("2CO"); // 2 Corinthians
-        THEME_TO_BOOKS.put("comfort", comfortBooks);
-        
-        // Philosophical theme - books with philosophical content
-        List<String> philosophicalBooks = new ArrayList<>();
-        philosophicalBooks.add("ECC"); // Ecclesiastes
-        philosophicalBooks.add("JOB"); // Job
-        philosophicalBooks.add("PRO"); // Proverbs
-        philosophicalBooks.add("ROM"); // Romans
-        THEME_TO_BOOKS.put("philosophical", philosophicalBooks);
-    }
+    private static BibleQuoteManager instance;
     
     private final Context context;
-    private final Executor executor;
+    // Send a second request when bible-api.com is slower than usual
+    private final boolean hedgeRequests;
     
-    public BibleQuoteManager(Context context) {
-        this.context = context;
-        this.executor = Executors.newSingleThreadExecutor();
+    // The running random batch of each theme
+    private final Map<String, Batch> inFlight = new HashMap<>();
+    
+    private BibleQuoteManager(Context context) {
+        this.context = context.getApplicationContext();
+        this.hedgeRequests = context.getResources().getBoolean(R.bool.config_hedge_requests);
+    }
+    
+    /**
+     * Get the process-wide manager. All fetches run on {@link AppExecutors}.
+     */
+    public static synchronized BibleQuoteManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new BibleQuoteManager(context);
+        }
+        return instance;
     }
     
     public interface QuoteCallback {
@@ -98,119 +51,300 @@ public class BibleQuoteManager {
         void onError(String error);
     }
     
-    public void getRandomQuoteByTheme(String theme, QuoteCallback callback) {
-        executor.execute(() -> {
+    /**
+     * Callback for batch fetches; onComplete is called once after every
+     * quote in the batch has been delivered or has failed
+     */
+    public interface BatchCallback extends QuoteCallback {
+        void onComplete();
+    }
+    
+    /**
+     * A random batch for one theme and the callbacks waiting on it; guarded by inFlight
+     */
+    private static class Batch {
+        final List<BatchCallback> waiting = new ArrayList<>();
+        // Quotes delivered so far, and how many the callers want in all
+        int delivered;
+        int target;
+    }
+    
+    /**
+     * Fetch several random quotes for a theme as one background task. They
+     * come from the installed corpus if there is one; otherwise they are
+     * runs of verses from random chapters, up to {@value #MAX_PASSAGE_VERSES}
+     * per request, so a batch costs a few requests rather than one per
+     * verse. If a batch for the same theme is already running, the callback
+     * joins it instead of starting another: it receives the quotes that
+     * batch delivers from then on, the batch runs on until it has delivered
+     * {@code count} more, and the callback's onComplete comes when it ends.
+     */
+    public void getRandomQuotesByTheme(String theme, int count, BatchCallback callback) {
+        final String key = theme.toLowerCase();
+        final Batch batch;
+        synchronized (inFlight) {
+            Batch running = inFlight.get(key);
+            if (running != null) {
+                running.waiting.add(callback);
+                running.target = Math.max(running.target, running.delivered + count);
+                return;
+            }
+            batch = new Batch();
+            batch.waiting.add(callback);
+            batch.target = count;
+            inFlight.put(key, batch);
+        }
+        
+        final BatchCallback fanOut = new BatchCallback() {
+            @Override
+            public void onQuoteReceived(BibleQuote quote) {
+                for (BatchCallback waiting : waiting(batch, true)) {
+                    waiting.onQuoteReceived(quote);
+                }
+            }
+            
+            @Override
+            public void onError(String error) {
+                for (BatchCallback waiting : waiting(batch, false)) {
+                    waiting.onError(error);
+                }
+            }
+            
+            @Override
+            public void onComplete() {
+                List<BatchCallback> waiting;
+                synchronized (inFlight) {
+                    if (inFlight.get(key) == batch) {
+                        inFlight.remove(key);
+                    }
+                    waiting = new ArrayList<>(batch.waiting);
+                }
+                for (BatchCallback done : waiting) {
+                    done.onComplete();
+                }
+            }
+        };
+        
+        boolean queued = AppExecutors.execute(() -> {
             try {
-                List<String> books = THEME_TO_BOOKS.get(theme.toLowerCase());
-                if (books == null || books.isEmpty()) {
-                    // If theme not found, use all books
-                    fetchRandomQuote("NT", callback);
-                } else {
-                    // Get a random book from the theme
-                    String randomBook = books.get(new Random().nextInt(books.size()));
-                    fetchRandomQuote(randomBook, callback);
+                BibleQuote local;
+                while (remaining(key, batch) > 0 && (local = localRandomQuote(key)) != null) {
+                    fanOut.onQuoteReceived(local);
+                }
+                // No corpus: a few verses per request instead of one request per verse
+                int requests = 0;
+                int remaining;
+                while ((remaining = remaining(key, batch)) > 0 && requests++ < requestBudget(batch)) {
+                    fetchRandomPassage(key, Math.min(remaining, MAX_PASSAGE_VERSES), fanOut);
                 }
+            } catch (QuoteHttpClient.CircuitOpenException e) {
+                // The endpoint is failing; the rest of the batch would be refused too
+                Log.d(TAG, e.getMessage());
             } catch (Exception e) {
-                Log.e(TAG, "Error getting quote by theme", e);
-                callback.onError("Failed to get quote: " + e.getMessage());
+                Log.e(TAG, "Error getting quotes by theme", e);
+                fanOut.onError("Failed to get quotes: " + e.getMessage());
+            } finally {
+                fanOut.onComplete();
             }
         });
+        if (!queued) {
+            fanOut.onError("Too many pending requests");
+            fanOut.onComplete();
+        }
     }
     
-    private void fetchRandomQuote(String bookFilter, QuoteCallback callback) {
-        HttpURLConnection connection = null;
-        BufferedReader reader = null;
+    private List<BatchCallback> waiting(Batch batch, boolean delivering) {
+        synchronized (inFlight) {
+            if (delivering) {
+                batch.delivered++;
+            }
+            return new ArrayList<>(batch.waiting);
+        }
+    }
+    
+    /**
+     * @return How many more quotes the batch's callers want. Once that is
+     * none, the batch takes no new callers, so a later call starts a new one.
+     */
+    private int remaining(String key, Batch batch) {
+        synchronized (inFlight) {
+            int remaining = batch.target - batch.delivered;
+            if (remaining <= 0 && inFlight.get(key) == batch) {
+                inFlight.remove(key);
+            }
+            return Math.max(0, remaining);
+        }
+    }
+    
+    /**
+     * @return The most passage requests the batch may make, with room for a
+     * couple that come back short
+     */
+    private int requestBudget(Batch batch) {
+        synchronized (inFlight) {
+            return batch.target / MAX_PASSAGE_VERSES + 2;
+        }
+    }
+    
+    /**
+     * @return A random verse for the theme from the installed corpus, or
+     * null if no corpus is installed
+     */
+    private BibleQuote localRandomQuote(String theme) {
+        LocalQuoteDatabase.open(context);
+        VerseStore store = LocalQuoteDatabase.getVerseStore();
+        int[] books = QuoteThemes.getBooksForTheme(theme);
+        if (store == null || books == null) {
+            return null;
+        }
+        int index = store.randomIndex(books, ThreadLocalRandom.current());
+        if (index < 0) {
+            return null;
+        }
+        return new BibleQuote(store.getText(index), store.getReference(index), store.getTranslation(),
+                theme.toLowerCase());
+    }
+    
+    /**
+     * Get a run of verses from a random chapter of one of the theme's books,
+     * with the book picked in proportion to its length. The run starts at a
+     * random verse, so every verse of the chapter is as likely to be drawn.
+     * @return The number of verses delivered
+     */
+    private int fetchRandomPassage(String theme, int verses, QuoteCallback callback)
+            throws QuoteHttpClient.CircuitOpenException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int book = BibleBooks.fromCode(QuoteThemes.pickBook(theme));
+        if (book == 0) {
+            // Unknown theme: any New Testament book
+            book = random.nextInt(40, BibleBooks.BOOK_COUNT + 1);
+        }
+        int chapter = 1 + random.nextInt(BibleBooks.chapterCount(book));
+        int chapterVerses = BibleBooks.verseCount(book, chapter);
+        return fetchPassage(book, chapter, 1 + random.nextInt(chapterVerses), Math.min(verses, chapterVerses),
+                callback);
+    }
+    
+    /**
+     * Get a run of verses of a chapter, wrapping from its last verse to its
+     * first. Verses already in the verse cache are delivered from it; only
+     * the rest of the run, from the first verse missing from the cache, is
+     * fetched. The response is decoded as it streams in, so the first verse
+     * arrives before the rest of the body.
+     * @param first The verse the run starts at
+     * @param verses The length of the run, at most the chapter's verse count
+     * @return The number of verses delivered
+     * @throws QuoteHttpClient.CircuitOpenException if bible-api.com has been failing
+     */
+    private int fetchPassage(int book, int chapter, int first, int verses, QuoteCallback callback)
+            throws QuoteHttpClient.CircuitOpenException {
+        VerseCache cache = VerseCache.getInstance(context);
+        String chapterReference = BibleBooks.name(book) + " " + chapter;
+        int chapterVerses = BibleBooks.verseCount(book, chapter);
+        int delivered = 0;
+        BibleQuote cached;
+        while (delivered < verses && (cached = cache.get(TRANSLATION, chapterReference + ":" + first)) != null) {
+            callback.onQuoteReceived(cached);
+            delivered++;
+            first = first % chapterVerses + 1;
+        }
+        if (delivered == verses) {
+            return delivered;
+        }
         
+        String reference = chapterReference + ":" + verseRanges(first, verses - delivered, chapterVerses);
+        int[] decoded = new int[1];
         try {
-            // Construct URL for random verse from specified book(s)
-            String urlString = BASE_URL + "data/" + TRANSLATION + "/random/" + bookFilter;
-            URL url = new URL(urlString);
-            
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(15000);
-            connection.setReadTimeout(15000);
-            connection.connect();
-            
-            int responseCode = connection.getResponseCode();
+            String urlString = BASE_URL + URLEncoder.encode(reference, "UTF-8").replace("+", "%20")
+                    + "?translation=" + TRANSLATION;
+            // A passage URL always returns the same verses, so a slow request can be hedged
+            int responseCode = QuoteHttpClient.getInstance().stream(urlString, hedgeRequests,
+                    body -> decoded[0] = decodePassage(body, callback));
             if (responseCode != HttpURLConnection.HTTP_OK) {
                 callback.onError("Server returned code: " + responseCode);
-                return;
+            } else if (decoded[0] == 0) {
+                callback.onError("No verses in response");
             }
-            
-            reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            StringBuilder response = new StringBuilder();
-            String line;
-            
-            while ((line = reader.readLine()) != null) {
-                response.append(line);
-            }
-            
-            BibleQuote quote = parseQuoteResponse(response.toString());
-            callback.onQuoteReceived(quote);
-            
+        } catch (QuoteHttpClient.CircuitOpenException e) {
+            throw e;
         } catch (IOException e) {
-            Log.e(TAG, "Network error", e);
+            // Verses decoded before the failure have already been delivered
+            Log.e(TAG, "Error streaming passage", e);
             callback.onError("Network error: " + e.getMessage());
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON parsing error", e);
-            callback.onError("Error parsing response: " + e.getMessage());
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "Error closing reader", e);
-                }
-            }
         }
+        return delivered + decoded[0];
     }
     
-    private BibleQuote parseQuoteResponse(String jsonResponse) throws JSONException {
-        JSONObject jsonObject = new JSONObject(jsonResponse);
-        
-        String reference = jsonObject.getString("reference");
-        String text = jsonObject.getString("text").trim();
-        String translation = jsonObject.getString("translation_name");
-        
-        return new BibleQuote(text, reference, translation, determineThemeFromReference(reference));
+    /**
+     * @return A run of verses as bible-api.com verse ranges, e.g. "16-18",
+     * or "30-36,1-4" for a run that wraps past the end of the chapter
+     */
+    private static String verseRanges(int first, int verses, int chapterVerses) {
+        int last = first + verses - 1;
+        if (last <= chapterVerses) {
+            return range(first, last);
+        }
+        return range(first, chapterVerses) + "," + range(1, last - chapterVerses);
     }
     
-    private String determineThemeFromReference(String reference) {
-        // Simple logic to determine theme from reference
-        // In a real app, this would be more sophisticated
-        String bookCode = extractBookCode(reference);
-        
-        for (Map.Entry<String, List<String>> entry : THEME_TO_BOOKS.entrySet()) {
-            if (entry.getValue().contains(bookCode)) {
-                return entry.getKey();
+    private static String range(int first, int last) {
+        return first == last ? String.valueOf(first) : first + "-" + last;
+    }
+    
+    /**
+     * Pull-parse a passage response, delivering each entry of its "verses"
+     * array as it is read. The combined "text" of the passage is skipped
+     * without being built. The verses are cached together once the array
+     * has been read, so the passage costs one disk write, not one per verse.
+     * @return The number of verses decoded
+     */
+    private int decodePassage(InputStream body, QuoteCallback callback) throws IOException {
+        // Not closed here: the HTTP client drains and closes the body for reuse
+        JsonReader reader = new JsonReader(new InputStreamReader(body, "UTF-8"));
+        List<BibleQuote> decoded = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"verses".equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                BibleQuote quote = readVerse(reader);
+                if (quote != null) {
+                    decoded.add(quote);
+                    callback.onQuoteReceived(quote);
+                }
             }
+            reader.endArray();
+            VerseCache.getInstance(context).putAll(TRANSLATION, decoded);
         }
-        
-        return "wisdom"; // Default theme
+        reader.endObject();
+        return decoded.size();
     }
     
-    private String extractBookCode(String reference) {
-        // Extract book code from reference like "John 3:16"
-        // This is a simplified version
-        String book = reference.split(" ")[0].toUpperCase();
-        
-        // Map common book names to codes
-        switch (book) {
-            case "JOHN": return "JHN";
-            case "PSALMS": case "PSALM": return "PSA";
-            case "PROVERBS": return "PRO";
-            case "ISAIAH": return "ISA";
-            case "MATTHEW": return "MAT";
-            case "ROMANS": return "ROM";
-            case "PHILIPPIANS": return "PHP";
-            case "ECCLESIASTES": return "ECC";
-            // Add more mappings as needed
-            default: return book.substring(0, Math.min(3, book.length()));
+    private static BibleQuote readVerse(JsonReader reader) throws IOException {
+        String bookName = null;
+        int chapter = 0;
+        int verse = 0;
+        String text = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "book_name": bookName = reader.nextString(); break;
+                case "chapter": chapter = reader.nextInt(); break;
+                case "verse": verse = reader.nextInt(); break;
+                case "text": text = reader.nextString(); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+        if (bookName == null || text == null || chapter == 0 || verse == 0) {
+            return null;
         }
+        String reference = bookName + " " + chapter + ":" + verse;
+        // The translation name comes after the verses, so the requested id is recorded
+        return new BibleQuote(text.trim(), reference, TRANSLATION, QuoteThemes.determineThemeFromReference(reference));
     }
     
     public static class BibleQuote {
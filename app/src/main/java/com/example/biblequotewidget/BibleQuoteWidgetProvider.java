@@ -5,29 +5,90 @@ import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.util.SparseArray;
 import android.widget.RemoteViews;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * Implementation of App Widget functionality.
  * App Widget Configuration implemented in {@link ConfigurationActivity}
  */
 public class BibleQuoteWidgetProvider extends AppWidgetProvider {
 
-    private static final String PREFS_NAME = "com.example.biblequotewidget.WidgetPrefs";
-    private static final String PREF_PREFIX_KEY = "widget_";
-    private static final String PREF_THEME_KEY = "theme_";
-    private static final String PREF_APPEARANCE_KEY = "appearance_";
-    
     public static final String ACTION_UPDATE_QUOTE = "com.example.biblequotewidget.ACTION_UPDATE_QUOTE";
     public static final String ACTION_SAVE_QUOTE = "com.example.biblequotewidget.ACTION_SAVE_QUOTE";
 
+    // Last content pushed per widget id, so unchanged widgets cost no IPC
+    private static final SparseArray<PushedContent> PUSHED = new SparseArray<>();
+
+    // Quote text metrics from widget_layout, used to estimate how much text fits
+    private static final float QUOTE_TEXT_SP = 14f;
+    private static final float CHAR_WIDTH_EM = 0.55f;
+    private static final float LINE_HEIGHT_EM = 1.2f;
+    private static final int PADDING_DP = 8;
+    // Reference row and the margin above it
+    private static final int FOOTER_DP = 24;
+
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
-        // There may be multiple widgets active, so update all of them
+        // onEnabled does not run again for widgets placed before an upgrade; a scheduled job is kept
+        QuoteUpdateService.scheduleUpdates(context);
+        
+        // Widgets placed by versions that did not record their size
+        WidgetStateStore stateStore = WidgetStateStore.getInstance(context);
         for (int appWidgetId : appWidgetIds) {
-            updateAppWidget(context, appWidgetManager, appWidgetId);
+            WidgetStateStore.WidgetState state = stateStore.get(appWidgetId);
+            if (state.getMaxQuoteLength() == 0) {
+                recordSize(context, state, appWidgetManager.getAppWidgetOptions(appWidgetId));
+            }
         }
+        
+        // There may be multiple widgets active, so update all of them in one pass
+        updateAppWidgets(context, appWidgetManager, appWidgetIds, true);
+    }
+
+    @Override
+    public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
+                                          int appWidgetId, Bundle newOptions) {
+        WidgetStateStore.WidgetState state = WidgetStateStore.getInstance(context).get(appWidgetId);
+        if (recordSize(context, state, newOptions)) {
+            // The current quote no longer fits; it stays up until one that does is drawn
+            WidgetRefreshEngine.refresh(context, appWidgetManager, new int[] { appWidgetId });
+        }
+    }
+
+    /**
+     * Store how many characters of quote text a widget shows at its size and
+     * the current font scale, so drawing a quote that fits needs no measuring
+     * @return true if the current quote no longer fits
+     */
+    private static boolean recordSize(Context context, WidgetStateStore.WidgetState state, Bundle options) {
+        if (options == null) {
+            return false;
+        }
+        // The smaller of the portrait and landscape sizes, so the quote fits in both
+        int widthDp = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH);
+        int heightDp = options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_HEIGHT);
+        if (widthDp <= 0 || heightDp <= 0) {
+            return false;
+        }
+        float textDp = QUOTE_TEXT_SP * context.getResources().getConfiguration().fontScale;
+        int charsPerLine = (int) ((widthDp - 2 * PADDING_DP) / (textDp * CHAR_WIDTH_EM));
+        int lines = (int) ((heightDp - 2 * PADDING_DP - FOOTER_DP) / (textDp * LINE_HEIGHT_EM));
+        int maxQuoteLength = Math.max(1, charsPerLine) * Math.max(1, lines);
+        if (maxQuoteLength == state.getMaxQuoteLength()) {
+            return false;
+        }
+        
+        state.setMaxQuoteLength(maxQuoteLength);
+        WidgetStateStore.getInstance(context).put(state);
+        return state.getQuote().length() > maxQuoteLength;
     }
 
     @Override
@@ -38,8 +99,12 @@ public class BibleQuoteWidgetProvider extends AppWidgetProvider {
             int appWidgetId = intent.getIntExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, 
                     AppWidgetManager.INVALID_APPWIDGET_ID);
             
+            AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
             if (appWidgetId != AppWidgetManager.INVALID_APPWIDGET_ID) {
-                updateAppWidget(context, AppWidgetManager.getInstance(context), appWidgetId);
+                WidgetRefreshEngine.refresh(context, appWidgetManager, new int[] { appWidgetId });
+            } else {
+                // No specific widget, so refresh every instance
+                WidgetRefreshEngine.refreshAll(context);
             }
         } else if (ACTION_SAVE_QUOTE.equals(intent.getAction())) {
             int appWidgetId = intent.getIntExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, 
@@ -51,53 +116,70 @@ public class BibleQuoteWidgetProvider extends AppWidgetProvider {
                 updateAppWidget(context, AppWidgetManager.getInstance(context), appWidgetId);
             }
         }
+        
+        // Covers onUpdate, onAppWidgetOptionsChanged and the actions above
+        flushState(context);
+    }
+
+    /**
+     * Write the state records this broadcast changed before it is finished.
+     * goAsync() keeps the process from being treated as idle, and killed,
+     * while the write-behind flush runs.
+     */
+    private void flushState(Context context) {
+        final WidgetStateStore stateStore = WidgetStateStore.getInstance(context);
+        if (!stateStore.hasPendingWrites()) {
+            return;
+        }
+        final PendingResult result = goAsync();
+        AppExecutors.executeOrRun(() -> {
+            try {
+                stateStore.flush();
+            } finally {
+                result.finish();
+            }
+        });
     }
 
     private void toggleSaveQuote(Context context, int appWidgetId) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
-        
-        String quoteKey = PREF_PREFIX_KEY + appWidgetId + "_current_quote";
-        String referenceKey = PREF_PREFIX_KEY + appWidgetId + "_current_reference";
-        String themeKey = PREF_PREFIX_KEY + appWidgetId + "_current_theme";
-        String savedKey = PREF_PREFIX_KEY + appWidgetId + "_is_saved";
-        
-        boolean isSaved = prefs.getBoolean(savedKey, false);
+        WidgetStateStore stateStore = WidgetStateStore.getInstance(context);
+        WidgetStateStore.WidgetState state = stateStore.get(appWidgetId);
+        SavedQuoteStore store = SavedQuoteStore.getInstance(context);
         
-        if (isSaved) {
+        if (state.isSaved()) {
             // Remove from saved quotes
-            editor.putBoolean(savedKey, false);
-        } else {
+            int savedId = state.getSavedId();
+            SavedQuotesActivity.SavedQuote saved = store.get(savedId);
+            if (saved != null && store.delete(savedId)) {
+                QuoteSearch.getInstance(context).onQuoteDeleted(savedId, saved.getQuote(), saved.getReference());
+            }
+            state.setSaved(false, -1);
+        } else if (state.hasQuote()) {
             // Add to saved quotes
-            String quote = prefs.getString(quoteKey, "");
-            String reference = prefs.getString(referenceKey, "");
-            String theme = prefs.getString(themeKey, "");
-            
-            if (!quote.isEmpty() && !reference.isEmpty()) {
-                // Save the current quote
-                editor.putBoolean(savedKey, true);
+            int savedId = store.add(state.getQuote(), state.getReference(), state.getQuoteTheme());
+            if (savedId >= 0) {
+                state.setSaved(true, savedId);
                 
-                // Also add to saved quotes list
-                int savedCount = prefs.getInt("saved_quotes_count", 0);
-                editor.putString("saved_quote_" + savedCount, quote);
-                editor.putString("saved_reference_" + savedCount, reference);
-                editor.putString("saved_theme_" + savedCount, theme);
-                editor.putInt("saved_quotes_count", savedCount + 1);
+                // Keep the search index in step with the saved list
+                QuoteSearch.getInstance(context).onQuoteSaved(savedId, state.getQuote(), state.getReference());
             }
         }
         
-        editor.apply();
+        stateStore.put(state);
     }
 
     @Override
     public void onDeleted(Context context, int[] appWidgetIds) {
-        // When the user deletes the widget, delete the preference associated with it
-        SharedPreferences.Editor prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+        // When the user deletes the widget, delete the state associated with it
+        WidgetStateStore stateStore = WidgetStateStore.getInstance(context);
+        QuoteSampler sampler = QuoteSampler.getInstance(context);
         for (int appWidgetId : appWidgetIds) {
-            prefs.remove(PREF_THEME_KEY + appWidgetId);
-            prefs.remove(PREF_APPEARANCE_KEY + appWidgetId);
+            stateStore.delete(appWidgetId);
+            sampler.delete(appWidgetId);
+            synchronized (PUSHED) {
+                PUSHED.remove(appWidgetId);
+            }
         }
-        prefs.apply();
     }
 
     @Override
@@ -113,202 +195,182 @@ public class BibleQuoteWidgetProvider extends AppWidgetProvider {
     }
 
     static void updateAppWidget(Context context, AppWidgetManager appWidgetManager, int appWidgetId) {
-        try {
-            // Get preferences
-            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-            String theme = prefs.getString(PREF_THEME_KEY + appWidgetId, "wisdom");
-            String appearance = prefs.getString(PREF_APPEARANCE_KEY + appWidgetId, "light");
-            
-            // Create RemoteViews object
-            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_layout);
-            
-            // Set appearance based on user preference - using direct color references
-            if ("dark".equals(appearance)) {
-                views.setInt(R.id.widget_layout, "setBackgroundResource", R.color.black);
-                views.setTextColor(R.id.quote_text, context.getResources().getColor(R.color.white));
-                views.setTextColor(R.id.reference_text, context.getResources().getColor(R.color.lightGray));
-                views.setTextColor(R.id.theme_text, context.getResources().getColor(R.color.lightGray));
-            } else {
-                views.setInt(R.id.widget_layout, "setBackgroundResource", R.color.white);
-                views.setTextColor(R.id.quote_text, context.getResources().getColor(R.color.black));
-                views.setTextColor(R.id.reference_text, context.getResources().getColor(R.color.darkGray));
-                views.setTextColor(R.id.theme_text, context.getResources().getColor(R.color.darkGray));
-            }
-            
-            // Check if we have a saved quote
-            String quoteText = prefs.getString(PREF_PREFIX_KEY + appWidgetId + "_current_quote", "");
-            String referenceText = prefs.getString(PREF_PREFIX_KEY + appWidgetId + "_current_reference", "");
-            String themeText = prefs.getString(PREF_PREFIX_KEY + appWidgetId + "_current_theme", "");
-            boolean isSaved = prefs.getBoolean(PREF_PREFIX_KEY + appWidgetId + "_is_saved", false);
-            
-            if (!quoteText.isEmpty() && !referenceText.isEmpty()) {
-                // We have a cached quote, use it
-                views.setTextViewText(R.id.quote_text, quoteText);
-                views.setTextViewText(R.id.reference_text, referenceText);
-                views.setTextViewText(R.id.theme_text, themeText.toUpperCase());
-                views.setImageViewResource(R.id.save_icon, 
-                        isSaved ? R.drawable.ic_saved : R.drawable.ic_not_saved);
-            } else {
-                // No cached quote, fetch a new one
-                fetchNewQuote(context, appWidgetManager, appWidgetId, theme, views);
-            }
-            
+        updateAppWidgets(context, appWidgetManager, new int[] { appWidgetId }, false);
+    }
+
+    /**
+     * Bring a set of widgets up to date in one pass. The target state of
+     * every widget is settled first (picking a quote for any widget without
+     * one), then only widgets whose content changed are pushed: a full
+     * update if the quote or appearance changed, a partial update if only
+     * the saved icon toggled, and nothing at all otherwise.
+     * @param forcePush Push every widget even if its content is unchanged,
+     *                  for system updates where the host may have lost its views
+     */
+    static void updateAppWidgets(Context context, AppWidgetManager appWidgetManager,
+                                 int[] appWidgetIds, boolean forcePush) {
+        long start = System.nanoTime();
+        WidgetStateStore stateStore = WidgetStateStore.getInstance(context);
+        List<WidgetStateStore.WidgetState> targets = new ArrayList<>(appWidgetIds.length);
+        Set<String> themesToRefill = new HashSet<>();
+        
+        // Settle the target state of every widget before pushing anything
+        for (int appWidgetId : appWidgetIds) {
             try {
-                // Set up click intent for configuration
-                Intent configIntent = new Intent(context, ConfigurationActivity.class);
-                configIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
-                PendingIntent configPendingIntent = PendingIntent.getActivity(context, appWidgetId, 
-                        configIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-                views.setOnClickPendingIntent(R.id.quote_text, configPendingIntent);
-                
-                // Set up long-press intent for saving
-                Intent saveIntent = new Intent(context, BibleQuoteWidgetProvider.class);
-                saveIntent.setAction(ACTION_SAVE_QUOTE);
-                saveIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
-                PendingIntent savePendingIntent = PendingIntent.getBroadcast(context, appWidgetId, 
-                        saveIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-                views.setOnClickPendingIntent(R.id.save_icon, savePendingIntent);
+                WidgetStateStore.WidgetState state = stateStore.get(appWidgetId);
+                if (!state.hasQuote()) {
+                    assignNewQuote(context, state);
+                    themesToRefill.add(state.getTheme());
+                }
+                targets.add(state);
             } catch (Exception e) {
-                // If setting up intents fails, at least show the widget content
-                views.setTextViewText(R.id.quote_text, "Tap to configure widget");
+                pushErrorViews(context, appWidgetManager, appWidgetId, e);
             }
-            
-            // Instruct the widget manager to update the widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
-        } catch (Exception e) {
-            // Fallback for any unexpected errors
+        }
+        
+        for (WidgetStateStore.WidgetState state : targets) {
             try {
-                RemoteViews errorViews = new RemoteViews(context.getPackageName(), R.layout.widget_layout);
-                errorViews.setTextViewText(R.id.quote_text, "Widget error: " + e.getMessage());
-                errorViews.setTextViewText(R.id.reference_text, "Please reconfigure widget");
-                errorViews.setTextViewText(R.id.theme_text, "ERROR");
-                
-                // Set up click intent for configuration as recovery option
-                Intent configIntent = new Intent(context, ConfigurationActivity.class);
-                configIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
-                PendingIntent configPendingIntent = PendingIntent.getActivity(context, appWidgetId, 
-                        configIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-                errorViews.setOnClickPendingIntent(R.id.widget_layout, configPendingIntent);
-                
-                appWidgetManager.updateAppWidget(appWidgetId, errorViews);
-            } catch (Exception finalError) {
-                // At this point we can't do much more
+                pushIfChanged(context, appWidgetManager, state, forcePush);
+            } catch (Exception e) {
+                pushErrorViews(context, appWidgetManager, state.getAppWidgetId(), e);
             }
         }
+        
+        // Have low queues topped up at the next charge on Wi-Fi, for later refreshes
+        WidgetRefreshEngine.refillPrefetchQueues(context, themesToRefill);
+        QuoteMetrics.UPDATE_WIDGETS.recordSince(start);
     }
 
-    private static void fetchNewQuote(Context context, AppWidgetManager appWidgetManager, 
-                                     int appWidgetId, String theme, RemoteViews views) {
+    /**
+     * Put a new quote into a widget's state record, without touching the
+     * widget itself or the network
+     */
+    private static void assignNewQuote(Context context, WidgetStateStore.WidgetState state) {
+        LocalQuoteDatabase.BibleQuote localQuote = WidgetRefreshEngine.nextQuote(context, state);
+        
+        // Save the quote to the widget's state record
+        state.setQuote(localQuote.getText(), localQuote.getReference(), localQuote.getTheme());
+        WidgetStateStore.getInstance(context).put(state);
+    }
+
+    private static void pushIfChanged(Context context, AppWidgetManager appWidgetManager,
+                                      WidgetStateStore.WidgetState state, boolean forcePush) {
+        int appWidgetId = state.getAppWidgetId();
+        int contentHash = contentHash(state);
+        PushedContent pushed;
+        synchronized (PUSHED) {
+            pushed = PUSHED.get(appWidgetId);
+        }
+        
+        if (!forcePush && pushed != null && pushed.contentHash == contentHash) {
+            if (pushed.saved == state.isSaved()) {
+                // The host already shows exactly this
+                QuoteMetrics.PUSH_SKIPPED.increment();
+                return;
+            }
+            // Only the saved icon changed
+            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_layout);
+            views.setImageViewResource(R.id.save_icon, 
+                    state.isSaved() ? R.drawable.ic_saved : R.drawable.ic_not_saved);
+            appWidgetManager.partiallyUpdateAppWidget(appWidgetId, views);
+            QuoteMetrics.PUSH_PARTIAL.increment();
+        } else {
+            appWidgetManager.updateAppWidget(appWidgetId, buildViews(context, state));
+            QuoteMetrics.PUSH_FULL.increment();
+        }
+        
+        synchronized (PUSHED) {
+            PUSHED.put(appWidgetId, new PushedContent(contentHash, state.isSaved()));
+        }
+    }
+
+    private static int contentHash(WidgetStateStore.WidgetState state) {
+        return Arrays.hashCode(new Object[] { state.getAppearance(), state.getQuote(),
+                state.getReference(), state.getQuoteTheme() });
+    }
+
+    private static RemoteViews buildViews(Context context, WidgetStateStore.WidgetState state) {
+        int appWidgetId = state.getAppWidgetId();
+        
+        // Create RemoteViews object
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_layout);
+        
+        // Set appearance based on user preference - using direct color references
+        if ("dark".equals(state.getAppearance())) {
+            views.setInt(R.id.widget_layout, "setBackgroundResource", R.color.black);
+            views.setTextColor(R.id.quote_text, context.getResources().getColor(R.color.white));
+            views.setTextColor(R.id.reference_text, context.getResources().getColor(R.color.lightGray));
+            views.setTextColor(R.id.theme_text, context.getResources().getColor(R.color.lightGray));
+        } else {
+            views.setInt(R.id.widget_layout, "setBackgroundResource", R.color.white);
+            views.setTextColor(R.id.quote_text, context.getResources().getColor(R.color.black));
+            views.setTextColor(R.id.reference_text, context.getResources().getColor(R.color.darkGray));
+            views.setTextColor(R.id.theme_text, context.getResources().getColor(R.color.darkGray));
+        }
+        
+        views.setTextViewText(R.id.quote_text, state.getQuote());
+        views.setTextViewText(R.id.reference_text, state.getReference());
+        views.setTextViewText(R.id.theme_text, state.getQuoteTheme().toUpperCase());
+        views.setImageViewResource(R.id.save_icon, 
+                state.isSaved() ? R.drawable.ic_saved : R.drawable.ic_not_saved);
+        
         try {
-            // Set default values while loading
-            views.setTextViewText(R.id.quote_text, "Loading quote...");
-            views.setTextViewText(R.id.reference_text, "");
-            views.setTextViewText(R.id.theme_text, theme.toUpperCase());
-            
-            // Update widget with loading state
-            appWidgetManager.updateAppWidget(appWidgetId, views);
-            
-            // Get a random quote from the local database
-            LocalQuoteDatabase.BibleQuote localQuote = LocalQuoteDatabase.getRandomQuote(theme);
-            
-            // Update widget with the local quote
-            views.setTextViewText(R.id.quote_text, localQuote.getText());
-            views.setTextViewText(R.id.reference_text, localQuote.getReference());
-            views.setTextViewText(R.id.theme_text, localQuote.getTheme().toUpperCase());
-            views.setImageViewResource(R.id.save_icon, R.drawable.ic_not_saved);
-            
-            // Save the quote to preferences
-            SharedPreferences.Editor prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
-            prefs.putString(PREF_PREFIX_KEY + appWidgetId + "_current_quote", localQuote.getText());
-            prefs.putString(PREF_PREFIX_KEY + appWidgetId + "_current_reference", localQuote.getReference());
-            prefs.putString(PREF_PREFIX_KEY + appWidgetId + "_current_theme", localQuote.getTheme());
-            prefs.putBoolean(PREF_PREFIX_KEY + appWidgetId + "_is_saved", false);
-            prefs.apply();
+            // Set up click intent for configuration
+            Intent configIntent = new Intent(context, ConfigurationActivity.class);
+            configIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
+            PendingIntent configPendingIntent = PendingIntent.getActivity(context, appWidgetId, 
+                    configIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+            views.setOnClickPendingIntent(R.id.quote_text, configPendingIntent);
             
-            // Update widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+            // Set up long-press intent for saving
+            Intent saveIntent = new Intent(context, BibleQuoteWidgetProvider.class);
+            saveIntent.setAction(ACTION_SAVE_QUOTE);
+            saveIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
+            PendingIntent savePendingIntent = PendingIntent.getBroadcast(context, appWidgetId, 
+                    saveIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+            views.setOnClickPendingIntent(R.id.save_icon, savePendingIntent);
+        } catch (Exception e) {
+            // If setting up intents fails, at least show the widget content
+            views.setTextViewText(R.id.quote_text, "Tap to configure widget");
+        }
+        return views;
+    }
+
+    private static void pushErrorViews(Context context, AppWidgetManager appWidgetManager,
+                                       int appWidgetId, Exception e) {
+        // Fallback for any unexpected errors
+        try {
+            RemoteViews errorViews = new RemoteViews(context.getPackageName(), R.layout.widget_layout);
+            errorViews.setTextViewText(R.id.quote_text, "Widget error: " + e.getMessage());
+            errorViews.setTextViewText(R.id.reference_text, "Please reconfigure widget");
+            errorViews.setTextViewText(R.id.theme_text, "ERROR");
             
-            // Optionally try to fetch from API in background for next update
-            tryFetchFromApiInBackground(context, appWidgetId, theme);
+            // Set up click intent for configuration as recovery option
+            Intent configIntent = new Intent(context, ConfigurationActivity.class);
+            configIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
+            PendingIntent configPendingIntent = PendingIntent.getActivity(context, appWidgetId, 
+                    configIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+            errorViews.setOnClickPendingIntent(R.id.widget_layout, configPendingIntent);
             
-        } catch (Exception e) {
-            // Handle any unexpected errors
-            try {
-                RemoteViews errorViews = new RemoteViews(context.getPackageName(), R.layout.widget_layout);
-                errorViews.setTextViewText(R.id.quote_text, "Widget error: " + e.getMessage());
-                errorViews.setTextViewText(R.id.reference_text, "Please reconfigure");
-                errorViews.setTextViewText(R.id.theme_text, "ERROR");
-                
-                // Set up click intent for configuration as recovery option
-                Intent configIntent = new Intent(context, ConfigurationActivity.class);
-                configIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, appWidgetId);
-                PendingIntent configPendingIntent = PendingIntent.getActivity(context, appWidgetId, 
-                        configIntent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-                errorViews.setOnClickPendingIntent(R.id.widget_layout, configPendingIntent);
-                
-                appWidgetManager.updateAppWidget(appWidgetId, errorViews);
-            } catch (Exception finalError) {
-                // At this point we can't do much more
+            appWidgetManager.updateAppWidget(appWidgetId, errorViews);
+            synchronized (PUSHED) {
+                PUSHED.remove(appWidgetId);
             }
+        } catch (Exception finalError) {
+            // At this point we can't do much more
         }
     }
-    
+
     /**
-     * Try to fetch a quote from the API in the background for future updates
-     * This doesn't affect the current widget display
+     * What was last pushed to the host for a widget in this process
      */
-    private static void tryFetchFromApiInBackground(Context context, int appWidgetId, String theme) {
-        // Run on a background thread
-        new Thread(() -> {
-            try {
-                // Create quote manager and fetch quote
-                BibleQuoteManager quoteManager = new BibleQuoteManager(context);
-                
-                quoteManager.getRandomQuoteByTheme(theme, new BibleQuoteManager.QuoteCallback() {
-                    @Override
-                    public void onQuoteReceived(BibleQuoteManager.BibleQuote quote) {
-                        try {
-                            // Save the quote to preferences for next update
-                            SharedPreferences.Editor prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
-                            prefs.putString(PREF_PREFIX_KEY + appWidgetId + "_next_quote", quote.getText());
-                            prefs.putString(PREF_PREFIX_KEY + appWidgetId + "_next_reference", quote.getReference());
-                            prefs.putString(PREF_PREFIX_KEY + appWidgetId + "_next_theme", quote.getTheme());
-                            prefs.apply();
-                        } catch (Exception e) {
-                            // Ignore errors, we'll use local quotes
-                        }
-                    }
+    private static class PushedContent {
+        final int contentHash;
+        final boolean saved;
 
-                    @Override
-                    public void onError(String error) {
-                        // Ignore errors, we'll use local quotes
-                    }
-                });
-            } catch (Exception e) {
-                // Ignore errors, we'll use local quotes
-            }
-        }).start();
-    }
-    
-    private static void handleFetchError(Context context, AppWidgetManager appWidgetManager, 
-                                        int appWidgetId, RemoteViews views, String errorMessage) {
-        // Provide a fallback quote
-        String fallbackQuote = "For God so loved the world that he gave his one and only Son, that whoever believes in him shall not perish but have eternal life.";
-        String fallbackReference = "John 3:16";
-        
-        views.setTextViewText(R.id.quote_text, fallbackQuote);
-        views.setTextViewText(R.id.reference_text, fallbackReference);
-        views.setTextViewText(R.id.theme_text, "OFFLINE");
-        
-        // Save the fallback quote
-        SharedPreferences.Editor prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
-        prefs.putString(PREF_PREFIX_KEY + appWidgetId + "_current_quote", fallbackQuote);
-        prefs.putString(PREF_PREFIX_KEY + appWidgetId + "_current_reference", fallbackReference);
-        prefs.putString(PREF_PREFIX_KEY + appWidgetId + "_current_theme", "offline");
-        prefs.putBoolean(PREF_PREFIX_KEY + appWidgetId + "_is_saved", false);
-        prefs.apply();
-        
-        // Update widget
-        appWidgetManager.updateAppWidget(appWidgetId, views);
+        PushedContent(int contentHash, boolean saved) {
+            this.contentHash = contentHash;
+            this.saved = saved;
+        }
     }
 }
@@ -4,26 +4,30 @@ import android.app.Activity;
 import android.appwidget.AppWidgetManager;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
+import android.widget.Spinner;
 import android.widget.Switch;
 import android.widget.Toast;
 
-public class ConfigurationActivity extends Activity {
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-    private static final String PREFS_NAME = "com.example.biblequotewidget.WidgetPrefs";
-    private static final String PREF_PREFIX_KEY = "widget_";
-    private static final String PREF_THEME_KEY = "theme_";
-    private static final String PREF_APPEARANCE_KEY = "appearance_";
-    private static final String PREF_NOTIFICATIONS_KEY = "notifications_";
+public class ConfigurationActivity extends Activity {
+    private static final String TAG = "ConfigurationActivity";
 
     private int appWidgetId = AppWidgetManager.INVALID_APPWIDGET_ID;
     private RadioGroup themeRadioGroup;
     private RadioGroup themeModeRadioGroup;
+    private Spinner translationSpinner;
+    // Ids of the translations offered, in spinner order
+    private final List<String> translationIds = new ArrayList<>();
     private Switch notificationsSwitch;
     private Button saveButton;
 
@@ -53,6 +57,7 @@ public class ConfigurationActivity extends Activity {
 
         themeRadioGroup = findViewById(R.id.theme_radio_group);
         themeModeRadioGroup = findViewById(R.id.theme_mode_radio_group);
+        translationSpinner = findViewById(R.id.translation_spinner);
         notificationsSwitch = findViewById(R.id.notifications_switch);
         saveButton = findViewById(R.id.save_button);
 
@@ -75,46 +80,120 @@ public class ConfigurationActivity extends Activity {
     }
 
     private void loadPreferences() {
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        WidgetStateStore.WidgetState state = WidgetStateStore.getInstance(this).get(appWidgetId);
         
         // Load theme preference
-        String theme = prefs.getString(PREF_THEME_KEY + appWidgetId, "wisdom");
+        String theme = state.getTheme();
         int themeId = getThemeRadioButtonId(theme);
         if (themeId != -1) {
             themeRadioGroup.check(themeId);
         }
         
         // Load appearance preference
-        String appearance = prefs.getString(PREF_APPEARANCE_KEY + appWidgetId, "light");
+        String appearance = state.getAppearance();
         if ("dark".equals(appearance)) {
             themeModeRadioGroup.check(R.id.theme_dark);
         } else {
             themeModeRadioGroup.check(R.id.theme_light);
         }
         
+        // Load translation preference, offering only translations with an installed store
+        loadTranslations(state.getTranslation());
+        
         // Load notifications preference
-        boolean notifications = prefs.getBoolean(PREF_NOTIFICATIONS_KEY + appWidgetId, true);
+        boolean notifications = state.isNotifications();
         notificationsSwitch.setChecked(notifications);
     }
 
+    /**
+     * Offer the widget's current translation straight away and the rest once
+     * they are known to be installed. Checking a store against the reference
+     * index reads every verse key, so that runs on the background pool.
+     */
+    private void loadTranslations(final String current) {
+        final String[] ids = getResources().getStringArray(R.array.translation_ids);
+        final String[] names = getResources().getStringArray(R.array.translation_names);
+        // translation_ids lists the default translation first
+        int shown = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i].equalsIgnoreCase(current)) {
+                shown = i;
+            }
+        }
+        showTranslations(Collections.singletonList(ids[shown]), Collections.singletonList(names[shown]),
+                current);
+        translationSpinner.setEnabled(false);
+
+        final Context context = getApplicationContext();
+        boolean queued = AppExecutors.execute(() -> {
+            final List<String> installedIds = new ArrayList<>();
+            final List<String> installedNames = new ArrayList<>();
+            LocalQuoteDatabase.open(context);
+            for (int i = 0; i < ids.length; i++) {
+                if (LocalQuoteDatabase.isInstalled(ids[i])) {
+                    installedIds.add(ids[i]);
+                    installedNames.add(names[i]);
+                }
+            }
+            runOnUiThread(() -> {
+                if (!isDestroyed()) {
+                    showTranslations(installedIds, installedNames, current);
+                    translationSpinner.setEnabled(true);
+                }
+            });
+        });
+        if (!queued) {
+            // Keep the current translation; the list is built again next time
+            Log.w(TAG, "Background queue full, offering only the current translation");
+            translationSpinner.setEnabled(true);
+        }
+    }
+
+    private void showTranslations(List<String> ids, List<String> names, String selected) {
+        translationIds.clear();
+        translationIds.addAll(ids);
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item,
+                names);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        translationSpinner.setAdapter(adapter);
+        for (int i = 0; i < translationIds.size(); i++) {
+            if (translationIds.get(i).equalsIgnoreCase(selected)) {
+                translationSpinner.setSelection(i);
+            }
+        }
+    }
+
     private void savePreferences() {
-        SharedPreferences.Editor prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+        WidgetStateStore stateStore = WidgetStateStore.getInstance(this);
+        WidgetStateStore.WidgetState state = stateStore.get(appWidgetId);
         
         // Save theme preference
         int selectedThemeId = themeRadioGroup.getCheckedRadioButtonId();
         String theme = getThemeFromRadioButtonId(selectedThemeId);
-        prefs.putString(PREF_THEME_KEY + appWidgetId, theme);
+        state.setTheme(theme);
         
         // Save appearance preference
         int selectedAppearanceId = themeModeRadioGroup.getCheckedRadioButtonId();
         String appearance = (selectedAppearanceId == R.id.theme_dark) ? "dark" : "light";
-        prefs.putString(PREF_APPEARANCE_KEY + appWidgetId, appearance);
+        state.setAppearance(appearance);
+        
+        // Save translation preference
+        String translation = translationIds.get(translationSpinner.getSelectedItemPosition());
+        if (!translation.equalsIgnoreCase(state.getTranslation()) && state.hasQuote()) {
+            // Same verse, new text: a store swap rather than a new quote or a fetch
+            LocalQuoteDatabase.BibleQuote translated = LocalQuoteDatabase.getVerse(
+                    state.getReference(), state.getQuoteTheme(), translation);
+            if (translated != null && translation.equalsIgnoreCase(translated.getTranslation())) {
+                state.setQuoteText(translated.getText());
+            }
+        }
+        state.setTranslation(translation);
         
         // Save notifications preference
         boolean notifications = notificationsSwitch.isChecked();
-        prefs.putBoolean(PREF_NOTIFICATIONS_KEY + appWidgetId, notifications);
+        state.setNotifications(notifications);
         
-        prefs.apply();
+        stateStore.put(state);
         
         Toast.makeText(this, "Settings saved", Toast.LENGTH_SHORT).show();
     }
@@ -0,0 +1,209 @@
+package com.example.biblequotewidget;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Downloads and installs the offline verse corpus.
+ *
+ * The server publishes a manifest per translation:
+ * <pre>
+ *   { "version": 3, "sha256": "...", "pack": "kjv-3.bqv.gz",
+ *     "deltas": { "2": "kjv-2-3.bqvd.gz" } }
+ * </pre>
+ * where sha256 is the digest of the uncompressed verse store. A first
+ * install downloads the full gzip pack; later versions apply a delta from
+ * the installed version when the manifest has one. Either way the new store
+ * is built in a temporary file, its digest checked, and then renamed over
+ * the old one, so a failed or interrupted update leaves the installed corpus
+ * untouched. Once a store is installed {@link LocalQuoteDatabase} serves it
+ * and {@link BibleQuoteManager} answers from it without the network. See
+ * {@link CorpusPack} for the delta layout.
+ *
+ * Builds with an empty {@code corpus_pack_url} and no bundled store have no
+ * corpus: {@link #isEnabled} is false, no daily check is scheduled, and the
+ * widget runs on the curated quotes and bible-api.com alone.
+ */
+public class CorpusPackManager {
+    private static final String TAG = "CorpusPackManager";
+    private static final String VERSE_STORE_DIR = "verses";
+    private static final String TRANSLATION = "kjv";
+    private static final long CHECK_INTERVAL_MS = 24L * 60 * 60 * 1000;
+
+    private static CorpusPackManager instance;
+
+    private final Context context;
+    private final String baseUrl;
+    private final File directory;
+    private final File storeFile;
+    private final File infoFile;
+
+    private CorpusPackManager(Context context) {
+        this.context = context.getApplicationContext();
+        this.baseUrl = this.context.getString(R.string.corpus_pack_url);
+        this.directory = new File(this.context.getFilesDir(), VERSE_STORE_DIR);
+        this.storeFile = new File(directory, TRANSLATION + ".bqv");
+        this.infoFile = new File(directory, TRANSLATION + ".pack");
+    }
+
+    public static synchronized CorpusPackManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new CorpusPackManager(context);
+        }
+        return instance;
+    }
+
+    /**
+     * @return true if this build has a pack server to download corpora from
+     */
+    public static boolean isEnabled(Context context) {
+        return !context.getString(R.string.corpus_pack_url).isEmpty();
+    }
+
+    /**
+     * Installed pack version and digest, and when the server was last asked
+     */
+    private static class PackInfo {
+        int version;
+        String sha256 = "";
+        long checkedAt;
+    }
+
+    /**
+     * Check the manifest at most once a day and install a newer corpus if
+     * there is one. Blocks on the network; call from a background thread.
+     * @return true if a new corpus was installed
+     */
+    public synchronized boolean updateIfDue() {
+        if (baseUrl.isEmpty()) {
+            // No pack server configured for this build
+            return false;
+        }
+        PackInfo info = readInfo();
+        if (System.currentTimeMillis() - info.checkedAt < CHECK_INTERVAL_MS && storeFile.exists()) {
+            return false;
+        }
+        try {
+            return update(info);
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Corpus update failed", e);
+            return false;
+        }
+    }
+
+    private boolean update(PackInfo info) throws IOException, JSONException {
+        QuoteHttpClient.Response response = QuoteHttpClient.getInstance()
+                .get(baseUrl + TRANSLATION + ".json");
+        if (!response.isSuccessful()) {
+            throw new IOException("Manifest returned code: " + response.getCode());
+        }
+        JSONObject manifest = new JSONObject(response.getBody());
+        int version = manifest.getInt("version");
+        String sha256 = manifest.getString("sha256");
+
+        boolean installed = storeFile.exists() && info.version > 0;
+        if (installed && version == info.version && sha256.equalsIgnoreCase(info.sha256)) {
+            info.checkedAt = System.currentTimeMillis();
+            writeInfo(info);
+            return false;
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File temp = new File(directory, TRANSLATION + ".bqv.tmp");
+        try {
+            JSONObject deltas = manifest.optJSONObject("deltas");
+            String delta = deltas != null && installed ? deltas.optString(String.valueOf(info.version), "") : "";
+            boolean built = false;
+            if (!delta.isEmpty()) {
+                try {
+                    download(delta, body -> CorpusPack.applyDelta(body, storeFile, info.version, temp, sha256));
+                    built = true;
+                } catch (IOException e) {
+                    // A full pack still works; only the saving is lost
+                    Log.w(TAG, "Delta from version " + info.version + " failed, downloading full pack", e);
+                }
+            }
+            if (!built) {
+                download(manifest.getString("pack"), body -> CorpusPack.unpack(body, temp, sha256));
+            }
+
+            // Make sure it opens before it replaces anything
+            VerseStore.open(temp);
+            if (!temp.renameTo(storeFile)) {
+                throw new IOException("Could not install corpus");
+            }
+        } finally {
+            temp.delete();
+        }
+
+        info.version = version;
+        info.sha256 = sha256;
+        info.checkedAt = System.currentTimeMillis();
+        writeInfo(info);
+        LocalQuoteDatabase.reopen(context);
+        Log.d(TAG, "Installed " + TRANSLATION + " corpus version " + version);
+        return true;
+    }
+
+    /**
+     * Stream a gzip pack or delta, building the store in the temporary file
+     * and checking its digest as it goes. Timed as {@link QuoteMetrics#PACK}
+     * so multi-megabyte downloads do not skew the quote fetch latencies.
+     */
+    private void download(String name, QuoteHttpClient.BodyReader builder) throws IOException {
+        String url = name.startsWith("http") ? name : baseUrl + name;
+        int responseCode = QuoteHttpClient.getInstance().stream(url, QuoteMetrics.PACK, builder);
+        if (responseCode != 200) {
+            throw new IOException("Download of " + name + " returned code: " + responseCode);
+        }
+    }
+
+    private PackInfo readInfo() {
+        PackInfo info = new PackInfo();
+        if (!infoFile.exists()) {
+            return info;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(infoFile));
+            try {
+                info.version = in.readInt();
+                info.sha256 = in.readUTF();
+                info.checkedAt = in.readLong();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unreadable pack info, treating corpus as unversioned", e);
+            return new PackInfo();
+        }
+        return info;
+    }
+
+    private void writeInfo(PackInfo info) throws IOException {
+        File temp = new File(infoFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            out.writeInt(info.version);
+            out.writeUTF(info.sha256);
+            out.writeLong(info.checkedAt);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(infoFile)) {
+            temp.delete();
+            throw new IOException("Could not write pack info");
+        }
+    }
+}
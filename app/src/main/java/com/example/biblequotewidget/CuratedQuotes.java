@@ -0,0 +1,212 @@
+package com.example.biblequotewidget;
+
+import android.content.res.AssetManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The curated quotes, read from the asset the compileCuratedQuotes build
+ * task generates from src/main/quotes/curated_quotes.json.
+ *
+ * Asset layout (big-endian, strings in modified UTF-8 as written by
+ * DataOutputStream):
+ * <pre>
+ *   int    magic ("BQCQ")
+ *   int    format version
+ *   int    theme count (T)
+ *   T x { UTF theme, int quote count, int offset of the theme's quotes }
+ *   per theme: quote count x { UTF text, UTF reference }
+ * </pre>
+ * Offsets count from the end of the theme index. Opening reads the index
+ * only; a theme's quotes are decoded the first time that theme is used,
+ * and ordered by {@link VerseStore#lengthClass(int) length class} then, so
+ * small widgets draw only quotes that fit, as they do from the verse store.
+ * Quote ids number the quotes in file order.
+ */
+final class CuratedQuotes {
+    static final int MAGIC = 0x42514351;
+    static final int VERSION = 1;
+
+    private final byte[] data;
+    private final int quotesOffset;
+    private final String[] themes;
+    private final int[] counts;
+    private final int[] firstIds;
+    private final int[] offsets;
+    private final List<List<LocalQuoteDatabase.BibleQuote>> decoded;
+    // Per decoded theme: positions of its quotes, shortest length class first,
+    // and how many quotes there are up to each length class
+    private final int[][] lengthOrders;
+    private final int[][] lengthCounts;
+    private final int size;
+
+    private CuratedQuotes(byte[] data) throws IOException {
+        this.data = data;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a curated quotes file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported curated quotes version " + version);
+        }
+        int themeCount = in.readInt();
+        themes = new String[themeCount];
+        counts = new int[themeCount];
+        firstIds = new int[themeCount];
+        offsets = new int[themeCount];
+        int id = 0;
+        for (int i = 0; i < themeCount; i++) {
+            themes[i] = in.readUTF();
+            counts[i] = in.readInt();
+            offsets[i] = in.readInt();
+            firstIds[i] = id;
+            id += counts[i];
+        }
+        size = id;
+        quotesOffset = data.length - in.available();
+        decoded = new ArrayList<>(Collections.nCopies(themeCount, (List<LocalQuoteDatabase.BibleQuote>) null));
+        lengthOrders = new int[themeCount][];
+        lengthCounts = new int[themeCount][];
+    }
+
+    static CuratedQuotes openAsset(AssetManager assets, String name) throws IOException {
+        InputStream in = assets.open(name);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 * 1024);
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return new CuratedQuotes(bytes.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return The number of curated quotes across all themes
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of quotes of a theme; 0 if it has none
+     */
+    int getCount(String theme) {
+        int index = indexOf(theme);
+        return index >= 0 ? counts[index] : 0;
+    }
+
+    /**
+     * @param maxLengthClass See {@link VerseStore#maxLengthClass(int)}
+     * @return The number of quotes of a theme no longer than a length class;
+     * 0 if it has none
+     */
+    int getCount(String theme, int maxLengthClass) {
+        int index = indexOf(theme);
+        if (index < 0) {
+            return 0;
+        }
+        if (maxLengthClass >= VerseStore.ANY_LENGTH) {
+            return counts[index];
+        }
+        theme(index);
+        return lengthCounts[index][maxLengthClass];
+    }
+
+    /**
+     * Map a position among a theme's quotes up to a length class to a quote
+     * id; the ids are the same as for the whole theme
+     * @param position 0 to {@link #getCount(String, int)} - 1
+     */
+    int getId(String theme, int maxLengthClass, int position) {
+        int index = indexOf(theme);
+        if (maxLengthClass >= VerseStore.ANY_LENGTH) {
+            return firstIds[index] + position;
+        }
+        theme(index);
+        return firstIds[index] + lengthOrders[index][position];
+    }
+
+    /**
+     * @return The quotes of a theme, which must have quotes
+     */
+    List<LocalQuoteDatabase.BibleQuote> getTheme(String theme) {
+        return theme(indexOf(theme));
+    }
+
+    /**
+     * @param id 0 to {@link #size()} - 1
+     */
+    LocalQuoteDatabase.BibleQuote get(int id) {
+        int index = themes.length - 1;
+        while (index > 0 && firstIds[index] > id) {
+            index--;
+        }
+        return theme(index).get(id - firstIds[index]);
+    }
+
+    private int indexOf(String theme) {
+        for (int i = 0; i < themes.length; i++) {
+            if (themes[i].equals(theme)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private synchronized List<LocalQuoteDatabase.BibleQuote> theme(int index) {
+        List<LocalQuoteDatabase.BibleQuote> quotes = decoded.get(index);
+        if (quotes != null) {
+            return quotes;
+        }
+        quotes = new ArrayList<>(counts[index]);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data,
+                quotesOffset + offsets[index], data.length - quotesOffset - offsets[index]));
+        try {
+            for (int i = 0; i < counts[index]; i++) {
+                String text = in.readUTF();
+                String reference = in.readUTF();
+                quotes.add(new LocalQuoteDatabase.BibleQuote(text, reference, themes[index]));
+            }
+        } catch (IOException e) {
+            // The build validated the file, so this is a damaged APK
+            throw new IllegalStateException("Corrupt curated quotes for " + themes[index], e);
+        }
+        indexLengths(index, quotes);
+        quotes = Collections.unmodifiableList(quotes);
+        decoded.set(index, quotes);
+        return quotes;
+    }
+
+    private void indexLengths(int index, List<LocalQuoteDatabase.BibleQuote> quotes) {
+        int[] classCounts = new int[VerseStore.LENGTH_CLASSES];
+        for (LocalQuoteDatabase.BibleQuote quote : quotes) {
+            classCounts[VerseStore.lengthClass(quote.getText().length())]++;
+        }
+        int[] next = new int[VerseStore.LENGTH_CLASSES];
+        int[] fitting = new int[VerseStore.LENGTH_CLASSES];
+        int total = 0;
+        for (int lengthClass = 0; lengthClass < VerseStore.LENGTH_CLASSES; lengthClass++) {
+            next[lengthClass] = total;
+            total += classCounts[lengthClass];
+            fitting[lengthClass] = total;
+        }
+        int[] order = new int[quotes.size()];
+        for (int i = 0; i < quotes.size(); i++) {
+            order[next[VerseStore.lengthClass(quotes.get(i).getText().length())]++] = i;
+        }
+        lengthOrders[index] = order;
+        lengthCounts[index] = fitting;
+    }
+}
@@ -1,28 +1,176 @@
 package com.example.biblequotewidget;
 
-import java.util.ArrayList;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A local database of Bible quotes to use when API is unavailable or for faster loading
  */
 public class LocalQuoteDatabase {
     
-    // Map of themes to lists of quotes
-    private static final Map<String, List<BibleQuote>> QUOTES_BY_THEME = new HashMap<>();
-    
-    // Initialize the database with quotes
-    static {
-        initializeHopeQuotes();
-        initializeLoveQuotes();
-        initializeStrengthQuotes();
-        initializeWisdomQuotes();
-        initializeComfortQuotes();
-        initializeMotivationQuotes();
-        initializePhilosophicalQuotes();
+    private static final String TAG = "LocalQuoteDatabase";
+    private static final String VERSE_STORE_DIR = "verses";
+    private static final String VERSE_STORE_EXTENSION = ".bqv";
+    static final String DEFAULT_TRANSLATION = "kjv";
+    
+    // Full-corpus verse store, memory-mapped on first use if one is installed.
+    // Its verse numbering is the reference index every translation shares.
+    private static volatile VerseStore verseStore;
+    private static volatile boolean verseStoreOpened;
+    private static Context appContext;
+    
+    // Stores of other translations, opened on first use; null if unavailable
+    private static final Map<String, VerseStore> TRANSLATION_STORES = new HashMap<>();
+    
+    private static final String[] THEMES = {
+        "hope", "love", "strength", "wisdom", "comfort", "motivation", "philosophical"
+    };
+    
+    // Curated quotes compiled into an asset at build time, read on first use
+    private static final String CURATED_ASSET = "quotes/curated.bqc";
+    private static volatile CuratedQuotes curated;
+    
+    /**
+     * Map the full-corpus verse store if one is installed in the app's files
+     * directory or packaged as an asset. Safe to call repeatedly; only the
+     * first call does any work. Without a store the curated quotes are used.
+     * Must be called before any other method.
+     */
+    public static void open(Context context) {
+        if (verseStoreOpened) {
+            return;
+        }
+        synchronized (LocalQuoteDatabase.class) {
+            if (verseStoreOpened) {
+                return;
+            }
+            verseStoreOpened = true;
+            appContext = context.getApplicationContext();
+            try {
+                verseStore = openStore(appContext, DEFAULT_TRANSLATION);
+                Log.d(TAG, "Verse store mapped with " + verseStore.getVerseCount() + " verses");
+            } catch (IOException e) {
+                // No corpus installed, fall back to the curated quotes
+                Log.d(TAG, "No verse store available: " + e.getMessage());
+            }
+        }
+    }
+    
+    private static VerseStore openStore(Context context, String translation) throws IOException {
+        String name = translation.toLowerCase() + VERSE_STORE_EXTENSION;
+        File file = new File(new File(context.getFilesDir(), VERSE_STORE_DIR), name);
+        if (file.exists()) {
+            return VerseStore.open(file);
+        }
+        // Packaged uncompressed, so it maps straight out of the APK without a copy
+        AssetFileDescriptor descriptor = context.getAssets().openFd(VERSE_STORE_DIR + "/" + name);
+        try {
+            FileInputStream in = descriptor.createInputStream();
+            try {
+                return VerseStore.map(in.getChannel(), descriptor.getStartOffset(), descriptor.getLength());
+            } finally {
+                in.close();
+            }
+        } finally {
+            descriptor.close();
+        }
+    }
+    
+    /**
+     * Map the verse stores again after a new one has been installed. The
+     * previous mappings stay valid for callers still holding them.
+     */
+    static void reopen(Context context) {
+        synchronized (LocalQuoteDatabase.class) {
+            verseStoreOpened = false;
+            TRANSLATION_STORES.clear();
+        }
+        open(context);
+    }
+    
+    /**
+     * Get the store for a translation. Every store shares the default store's
+     * verse numbering, so switching translation keeps the same verse index
+     * and only changes which text is decoded.
+     * @return The store, or null if the translation is not installed or numbers
+     * its verses differently
+     */
+    static VerseStore getVerseStore(String translation) {
+        VerseStore reference = verseStore;
+        if (reference == null || translation == null || translation.isEmpty()
+                || DEFAULT_TRANSLATION.equalsIgnoreCase(translation)) {
+            return reference;
+        }
+        String key = translation.toLowerCase();
+        synchronized (LocalQuoteDatabase.class) {
+            if (TRANSLATION_STORES.containsKey(key)) {
+                return TRANSLATION_STORES.get(key);
+            }
+            VerseStore store = null;
+            try {
+                store = openStore(appContext, key);
+                if (!reference.hasSameIndex(store)) {
+                    Log.w(TAG, "Verse store for " + key + " does not match the reference index");
+                    store = null;
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "No verse store for " + key + ": " + e.getMessage());
+            }
+            TRANSLATION_STORES.put(key, store);
+            return store;
+        }
+    }
+    
+    /**
+     * @return true if verses can be shown in a translation: the default one
+     * always, any other only while its store is installed
+     */
+    static boolean isInstalled(String translation) {
+        return DEFAULT_TRANSLATION.equalsIgnoreCase(translation) || getVerseStore(translation) != null;
+    }
+    
+    /**
+     * @return The mapped verse store, or null if none is installed or
+     * {@link #open(Context)} has not been called yet
+     */
+    static VerseStore getVerseStore() {
+        return verseStore;
+    }
+    
+    /**
+     * @return The curated quotes, reading their index from the asset on first use
+     */
+    private static CuratedQuotes curated() {
+        CuratedQuotes quotes = curated;
+        if (quotes != null) {
+            return quotes;
+        }
+        synchronized (LocalQuoteDatabase.class) {
+            if (curated == null) {
+                if (appContext == null) {
+                    throw new IllegalStateException("LocalQuoteDatabase.open has not been called");
+                }
+                try {
+                    curated = CuratedQuotes.openAsset(appContext.getAssets(), CURATED_ASSET);
+                } catch (IOException e) {
+                    // The build always packages the asset
+                    throw new IllegalStateException("Curated quotes asset is missing or corrupt", e);
+                }
+            }
+            return curated;
+        }
     }
     
     /**
@@ -31,30 +179,244 @@ public class LocalQuoteDatabase {
      * @return A random BibleQuote for the theme, or from another theme if not found
      */
     public static BibleQuote getRandomQuote(String theme) {
-        List<BibleQuote> quotes = QUOTES_BY_THEME.get(theme.toLowerCase());
-        
-        // If theme not found or empty, use wisdom theme as default
-        if (quotes == null || quotes.isEmpty()) {
-            quotes = QUOTES_BY_THEME.get("wisdom");
+        Random random = ThreadLocalRandom.current();
+        
+        // Prefer the full corpus, decoding only the verse we return
+        VerseStore store = verseStore;
+        if (store != null) {
+            int[] books = QuoteThemes.getBooksForTheme(theme);
+            if (books != null) {
+                int verseIndex = store.randomIndex(books, random);
+                if (verseIndex >= 0) {
+                    return new BibleQuote(store.getText(verseIndex), store.getReference(verseIndex),
+                            theme.toLowerCase(), store.getTranslation());
+                }
+            }
         }
         
+        List<BibleQuote> quotes = curated().getTheme(curatedTheme(theme));
+        
         // Get a random quote from the list
-        Random random = new Random();
         int index = random.nextInt(quotes.size());
         return quotes.get(index);
     }
     
+    /**
+     * @return The number of ids {@link #getPoolItem} can return: the verses in
+     * the verse store if one is open, otherwise the curated quotes
+     */
+    static int getQuoteIdCount() {
+        VerseStore store = verseStore;
+        // Themes the store cannot serve use curated ids past the verse ids
+        return store != null ? store.getVerseCount() + curated().size() : curated().size();
+    }
+    
+    /**
+     * @return The number of quotes a theme draws from
+     */
+    static int getPoolSize(String theme) {
+        return getPoolSize(theme, VerseStore.ANY_LENGTH);
+    }
+    
+    /**
+     * @param maxLengthClass Only count verses up to this length class, see
+     *                       {@link VerseStore#maxLengthClass(int)}
+     * @return The number of quotes a theme draws from for widgets that fit
+     * verses up to the given length
+     */
+    static int getPoolSize(String theme, int maxLengthClass) {
+        VerseStore store = verseStore;
+        if (store != null) {
+            int[] books = QuoteThemes.getBooksForTheme(theme);
+            if (books != null) {
+                int poolSize = store.getPoolSize(books, fittingClass(store, books, maxLengthClass));
+                if (poolSize > 0) {
+                    return poolSize;
+                }
+            }
+        }
+        String curatedTheme = curatedTheme(theme);
+        return curated().getCount(curatedTheme, curatedClass(curatedTheme, maxLengthClass));
+    }
+    
+    /**
+     * Map a position in a theme's pool to a quote id that is stable across
+     * themes, so a verse shared by two themes has one id
+     * @param position 0 to {@link #getPoolSize(String)} - 1
+     */
+    static int getPoolItem(String theme, int position) {
+        return getPoolItem(theme, VerseStore.ANY_LENGTH, position);
+    }
+    
+    /**
+     * Map a position in a theme's pool of verses up to a length class to a
+     * quote id; the ids are the same as for the whole pool
+     * @param position 0 to {@link #getPoolSize(String, int)} - 1
+     */
+    static int getPoolItem(String theme, int maxLengthClass, int position) {
+        VerseStore store = verseStore;
+        int firstCuratedId = 0;
+        if (store != null) {
+            int[] books = QuoteThemes.getBooksForTheme(theme);
+            if (books != null && store.getPoolSize(books) > 0) {
+                return store.poolIndex(books, fittingClass(store, books, maxLengthClass), position);
+            }
+            // Themes the store cannot serve fall back below, past the verse ids
+            firstCuratedId = store.getVerseCount();
+        }
+        String curatedTheme = curatedTheme(theme);
+        return firstCuratedId + curated().getId(curatedTheme, curatedClass(curatedTheme, maxLengthClass), position);
+    }
+    
+    /**
+     * @return The length class to draw from: the given one, or any length
+     * if none of the books' verses are that short
+     */
+    private static int fittingClass(VerseStore store, int[] books, int maxLengthClass) {
+        if (maxLengthClass < VerseStore.ANY_LENGTH && store.getPoolSize(books, maxLengthClass) == 0) {
+            return VerseStore.ANY_LENGTH;
+        }
+        return maxLengthClass;
+    }
+    
+    /**
+     * @return The length class to draw a curated theme's quotes from: the
+     * given one, or any length if none of its quotes are that short
+     */
+    private static int curatedClass(String curatedTheme, int maxLengthClass) {
+        if (maxLengthClass < VerseStore.ANY_LENGTH && curated().getCount(curatedTheme, maxLengthClass) == 0) {
+            return VerseStore.ANY_LENGTH;
+        }
+        return maxLengthClass;
+    }
+    
+    /**
+     * @return The quote for an id from {@link #getPoolItem}
+     */
+    static BibleQuote getQuoteById(int id, String theme) {
+        return getQuoteById(id, theme, DEFAULT_TRANSLATION);
+    }
+    
+    /**
+     * @return The quote for an id from {@link #getPoolItem}, in the given
+     * translation if it is installed and in the default one otherwise
+     */
+    static BibleQuote getQuoteById(int id, String theme, String translation) {
+        VerseStore store = verseStore;
+        if (store != null) {
+            if (id < store.getVerseCount()) {
+                return verseAt(store, id, theme.toLowerCase(), translation);
+            }
+            id -= store.getVerseCount();
+        }
+        return curated().get(id);
+    }
+    
+    /**
+     * Look up a single verse in another translation; a reference index
+     * lookup and one text decode, with no fetch
+     * @return The verse, or null if it is not in the installed corpus
+     */
+    static BibleQuote getVerse(String reference, String theme, String translation) {
+        VerseStore store = verseStore;
+        int index = store != null ? store.indexOf(reference) : -1;
+        if (index < 0) {
+            return null;
+        }
+        return verseAt(store, index, theme, translation);
+    }
+    
+    /**
+     * Decode one verse of the reference index from a translation's store
+     */
+    private static BibleQuote verseAt(VerseStore reference, int index, String theme, String translation) {
+        VerseStore store = getVerseStore(translation);
+        if (store == null) {
+            store = reference;
+        }
+        return new BibleQuote(store.getText(index), reference.getReference(index), theme,
+                store.getTranslation());
+    }
+    
+    /**
+     * @return The curated theme to use for a theme; wisdom if it has no quotes
+     */
+    private static String curatedTheme(String theme) {
+        String themeKey = theme.toLowerCase();
+        return curated().getCount(themeKey) == 0 ? "wisdom" : themeKey;
+    }
+    
+    /**
+     * Get the verse of the day for a theme. Every caller asking for the same
+     * theme, day and salt gets the same verse, with no stored state; a theme's
+     * verses are walked in a keyed shuffled order, so none repeats until all
+     * have been shown.
+     * @param theme The theme to get a quote for
+     * @param epochDay Days since 1970-01-01, see {@link #today()}
+     * @param salt 0 to share the verse across widgets, or e.g. a widget id to vary it
+     * @return The BibleQuote for that day
+     */
+    public static BibleQuote getQuoteOfTheDay(String theme, long epochDay, long salt) {
+        return getQuoteOfTheDay(theme, epochDay, salt, DEFAULT_TRANSLATION);
+    }
+    
+    /**
+     * Get the verse of the day for a theme in a given translation. The verse
+     * is the same in every translation; only its text differs.
+     */
+    public static BibleQuote getQuoteOfTheDay(String theme, long epochDay, long salt, String translation) {
+        return getQuoteOfTheDay(theme, epochDay, salt, translation, VerseStore.ANY_LENGTH);
+    }
+    
+    /**
+     * Get the verse of the day for a theme among the verses up to a length
+     * class, for a widget too small to show the longer ones
+     */
+    static BibleQuote getQuoteOfTheDay(String theme, long epochDay, long salt, String translation,
+                                       int maxLengthClass) {
+        String themeKey = theme.toLowerCase();
+        long seed = KeyedPermutation.mix(themeKey.hashCode() * 0x9E3779B97F4A7C15L ^ salt);
+        
+        VerseStore store = verseStore;
+        if (store != null) {
+            int[] books = QuoteThemes.getBooksForTheme(theme);
+            if (books != null) {
+                int lengthClass = fittingClass(store, books, maxLengthClass);
+                int poolSize = store.getPoolSize(books, lengthClass);
+                if (poolSize > 0) {
+                    int verseIndex = store.poolIndex(books, lengthClass, dayPosition(poolSize, seed, epochDay));
+                    return verseAt(store, verseIndex, themeKey, translation);
+                }
+            }
+        }
+        
+        String curatedTheme = curatedTheme(theme);
+        int lengthClass = curatedClass(curatedTheme, maxLengthClass);
+        int position = dayPosition(curated().getCount(curatedTheme, lengthClass), seed, epochDay);
+        return curated().get(curated().getId(curatedTheme, lengthClass, position));
+    }
+    
+    /**
+     * @return Today's date in the device time zone, as days since 1970-01-01
+     */
+    public static long today() {
+        long now = System.currentTimeMillis();
+        return (now + TimeZone.getDefault().getOffset(now)) / TimeUnit.DAYS.toMillis(1);
+    }
+    
+    private static int dayPosition(int poolSize, long seed, long epochDay) {
+        // Each pass through the pool uses a fresh order
+        long cycle = epochDay / poolSize;
+        return new KeyedPermutation(poolSize, KeyedPermutation.mix(seed + cycle)).get(epochDay);
+    }
+    
     /**
      * Get a random quote from any theme
      * @return A random BibleQuote from any theme
      */
     public static BibleQuote getRandomQuote() {
-        // Get all themes
-        List<String> themes = new ArrayList<>(QUOTES_BY_THEME.keySet());
-        
         // Select a random theme
-        Random random = new Random();
-        String randomTheme = themes.get(random.nextInt(themes.size()));
+        String randomTheme = THEMES[ThreadLocalRandom.current().nextInt(THEMES.length)];
         
         // Get a random quote from that theme
         return getRandomQuote(randomTheme);
@@ -67,11 +429,20 @@ public class LocalQuoteDatabase {
         private final String text;
         private final String reference;
         private final String theme;
+        private final String translation;
         
         public BibleQuote(String text, String reference, String theme) {
+            this(text, reference, theme, "");
+        }
+        
+        /**
+         * @param translation Translation code such as "kjv"; empty for the curated quotes
+         */
+        public BibleQuote(String text, String reference, String theme, String translation) {
             this.text = text;
             this.reference = reference;
             this.theme = theme;
+            this.translation = translation;
         }
         
         public String getText() {
@@ -85,264 +456,9 @@ public class LocalQuoteDatabase {
         public String getTheme() {
             return theme;
         }
-    }
-    
-    // Initialize quotes for the "hope" theme
-    private static void initializeHopeQuotes() {
-        List<BibleQuote> hopeQuotes = new ArrayList<>();
-        
-        hopeQuotes.add(new BibleQuote(
-            "For I know the plans I have for you, declares the LORD, plans for welfare and not for evil, to give you a future and a hope.",
-            "Jeremiah 29:11",
-            "hope"
-        ));
-        
-        hopeQuotes.add(new BibleQuote(
-            "May the God of hope fill you with all joy and peace in believing, so that by the power of the Holy Spirit you may abound in hope.",
-            "Romans 15:13",
-            "hope"
-        ));
-        
-        hopeQuotes.add(new BibleQuote(
-            "But they who wait for the LORD shall renew their strength; they shall mount up with wings like eagles; they shall run and not be weary; they shall walk and not faint.",
-            "Isaiah 40:31",
-            "hope"
-        ));
-        
-        hopeQuotes.add(new BibleQuote(
-            "For whatever was written in former days was written for our instruction, that through endurance and through the encouragement of the Scriptures we might have hope.",
-            "Romans 15:4",
-            "hope"
-        ));
-        
-        hopeQuotes.add(new BibleQuote(
-            "Rejoice in hope, be patient in tribulation, be constant in prayer.",
-            "Romans 12:12",
-            "hope"
-        ));
-        
-        QUOTES_BY_THEME.put("hope", hopeQuotes);
-    }
-    
-    // Initialize quotes for the "love" theme
-    private static void initializeLoveQuotes() {
-        List<BibleQuote> loveQuotes = new ArrayList<>();
-        
-        loveQuotes.add(new BibleQuote(
-            "For God so loved the world, that he gave his only Son, that whoever believes in him should not perish but have eternal life.",
-            "John 3:16",
-            "love"
-        ));
-        
-        loveQuotes.add(new BibleQuote(
-            "Love is patient and kind; love does not envy or boast; it is not arrogant or rude. It does not insist on its own way; it is not irritable or resentful; it does not rejoice at wrongdoing, but rejoices with the truth.",
-            "1 Corinthians 13:4-6",
-            "love"
-        ));
         
-        loveQuotes.add(new BibleQuote(
-            "We love because he first loved us.",
-            "1 John 4:19",
-            "love"
-        ));
-        
-        loveQuotes.add(new BibleQuote(
-            "Greater love has no one than this, that someone lay down his life for his friends.",
-            "John 15:13",
-            "love"
-        ));
-        
-        loveQuotes.add(new BibleQuote(
-            "And above all these put on love, which binds everything together in perfect harmony.",
-            "Colossians 3:14",
-            "love"
-        ));
-        
-        QUOTES_BY_THEME.put("love", loveQuotes);
-    }
-    
-    // Initialize quotes for the "strength" theme
-    private static void initializeStrengthQuotes() {
-        List<BibleQuote> strengthQuotes = new ArrayList<>();
-        
-        strengthQuotes.add(new BibleQuote(
-            "I can do all things through him who strengthens me.",
-            "Philippians 4:13",
-            "strength"
-        ));
-        
-        strengthQuotes.add(new BibleQuote(
-            "The LORD is my strength and my shield; in him my heart trusts, and I am helped; my heart exults, and with my song I give thanks to him.",
-            "Psalm 28:7",
-            "strength"
-        ));
-        
-        strengthQuotes.add(new BibleQuote(
-            "Be strong and courageous. Do not fear or be in dread of them, for it is the LORD your God who goes with you. He will not leave you or forsake you.",
-            "Deuteronomy 31:6",
-            "strength"
-        ));
-        
-        strengthQuotes.add(new BibleQuote(
-            "But he said to me, 'My grace is sufficient for you, for my power is made perfect in weakness.' Therefore I will boast all the more gladly of my weaknesses, so that the power of Christ may rest upon me.",
-            "2 Corinthians 12:9",
-            "strength"
-        ));
-        
-        strengthQuotes.add(new BibleQuote(
-            "Fear not, for I am with you; be not dismayed, for I am your God; I will strengthen you, I will help you, I will uphold you with my righteous right hand.",
-            "Isaiah 41:10",
-            "strength"
-        ));
-        
-        QUOTES_BY_THEME.put("strength", strengthQuotes);
-    }
-    
-    // Initialize quotes for the "wisdom" theme
-    private static void initializeWisdomQuotes() {
-        List<BibleQuote> wisdomQuotes = new ArrayList<>();
-        
-        wisdomQuotes.add(new BibleQuote(
-            "The fear of the LORD is the beginning of wisdom, and the knowledge of the Holy One is insight.",
-            "Proverbs 9:10",
-            "wisdom"
-        ));
-        
-        wisdomQuotes.add(new BibleQuote(
-            "If any of you lacks wisdom, let him ask God, who gives generously to all without reproach, and it will be given him.",
-            "James 1:5",
-            "wisdom"
-        ));
-        
-        wisdomQuotes.add(new BibleQuote(
-            "Blessed is the one who finds wisdom, and the one who gets understanding, for the gain from her is better than gain from silver and her profit better than gold.",
-            "Proverbs 3:13-14",
-            "wisdom"
-        ));
-        
-        wisdomQuotes.add(new BibleQuote(
-            "For the LORD gives wisdom; from his mouth come knowledge and understanding.",
-            "Proverbs 2:6",
-            "wisdom"
-        ));
-        
-        wisdomQuotes.add(new BibleQuote(
-            "The way of a fool is right in his own eyes, but a wise man listens to advice.",
-            "Proverbs 12:15",
-            "wisdom"
-        ));
-        
-        QUOTES_BY_THEME.put("wisdom", wisdomQuotes);
-    }
-    
-    // Initialize quotes for the "comfort" theme
-    private static void initializeComfortQuotes() {
-        List<BibleQuote> comfortQuotes = new ArrayList<>();
-        
-        comfortQuotes.add(new BibleQuote(
-            "Blessed are those who mourn, for they shall be comforted.",
-            "Matthew 5:4",
-            "comfort"
-        ));
-        
-        comfortQuotes.add(new BibleQuote(
-            "Come to me, all who labor and are heavy laden, and I will give you rest.",
-            "Matthew 11:28",
-            "comfort"
-        ));
-        
-        comfortQuotes.add(new BibleQuote(
-            "The LORD is near to the brokenhearted and saves the crushed in spirit.",
-            "Psalm 34:18",
-            "comfort"
-        ));
-        
-        comfortQuotes.add(new BibleQuote(
-            "Blessed be the God and Father of our Lord Jesus Christ, the Father of mercies and God of all comfort, who comforts us in all our affliction.",
-            "2 Corinthians 1:3-4",
-            "comfort"
-        ));
-        
-        comfortQuotes.add(new BibleQuote(
-            "He will wipe away every tear from their eyes, and death shall be no more, neither shall there be mourning, nor crying, nor pain anymore, for the former things have passed away.",
-            "Revelation 21:4",
-            "comfort"
-        ));
-        
-        QUOTES_BY_THEME.put("comfort", comfortQuotes);
-    }
-    
-    // Initialize quotes for the "motivation" theme
-    private static void initializeMotivationQuotes() {
-        List<BibleQuote> motivationQuotes = new ArrayList<>();
-        
-        motivationQuotes.add(new BibleQuote(
-            "And let us not grow weary of doing good, for in due season we will reap, if we do not give up.",
-            "Galatians 6:9",
-            "motivation"
-        ));
-        
-        motivationQuotes.add(new BibleQuote(
-            "Therefore, my beloved brothers, be steadfast, immovable, always abounding in the work of the Lord, knowing that in the Lord your labor is not in vain.",
-            "1 Corinthians 15:58",
-            "motivation"
-        ));
-        
-        motivationQuotes.add(new BibleQuote(
-            "But as for you, be strong and do not give up, for your work will be rewarded.",
-            "2 Chronicles 15:7",
-            "motivation"
-        ));
-        
-        motivationQuotes.add(new BibleQuote(
-            "Have I not commanded you? Be strong and courageous. Do not be frightened, and do not be dismayed, for the LORD your God is with you wherever you go.",
-            "Joshua 1:9",
-            "motivation"
-        ));
-        
-        motivationQuotes.add(new BibleQuote(
-            "For I am sure that neither death nor life, nor angels nor rulers, nor things present nor things to come, nor powers, nor height nor depth, nor anything else in all creation, will be able to separate us from the love of God in Christ Jesus our Lord.",
-            "Romans 8:38-39",
-            "motivation"
-        ));
-        
-        QUOTES_BY_THEME.put("motivation", motivationQuotes);
-    }
-    
-    // Initialize quotes for the "philosophical" theme
-    private static void initializePhilosophicalQuotes() {
-        List<BibleQuote> philosophicalQuotes = new ArrayList<>();
-        
-        philosophicalQuotes.add(new BibleQuote(
-            "For now we see in a mirror dimly, but then face to face. Now I know in part; then I shall know fully, even as I have been fully known.",
-            "1 Corinthians 13:12",
-            "philosophical"
-        ));
-        
-        philosophicalQuotes.add(new BibleQuote(
-            "What has been is what will be, and what has been done is what will be done, and there is nothing new under the sun.",
-            "Ecclesiastes 1:9",
-            "philosophical"
-        ));
-        
-        philosophicalQuotes.add(new BibleQuote(
-            "For the invisible things of him from the creation of the world are clearly seen, being understood by the things that are made, even his eternal power and Godhead; so that they are without excuse.",
-            "Romans 1:20",
-            "philosophical"
-        ));
-        
-        philosophicalQuotes.add(new BibleQuote(
-            "For we brought nothing into the world, and we cannot take anything out of the world.",
-            "1 Timothy 6:7",
-            "philosophical"
-        ));
-        
-        philosophicalQuotes.add(new BibleQuote(
-            "Vanity of vanities, says the Preacher, vanity of vanities! All is vanity. What does man gain by all the toil at which he toils under the sun?",
-            "Ecclesiastes 1:2-3",
-            "philosophical"
-        ));
-        
-        QUOTES_BY_THEME.put("philosophical", philosophicalQuotes);
+        public String getTranslation() {
+            return translation;
+        }
     }
 }
@@ -0,0 +1,528 @@
+package com.example.biblequotewidget;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Process-wide HTTP client for bible-api.com.
+ *
+ * Connections are never disconnected; response bodies are always read to the
+ * end and closed, which hands the socket back to the platform's keep-alive
+ * pool so later requests skip DNS, TCP and TLS setup. Responses are requested
+ * gzip-compressed. Verses are not revalidated: a passage once fetched is
+ * kept in {@link VerseCache}, so a repeat lookup never reaches the network.
+ *
+ * Each endpoint (host plus first path segment, so two services under one
+ * host are tracked apart) has a {@link CircuitBreaker}. While it is open,
+ * requests fail at once with {@link CircuitOpenException} instead of tying
+ * up a background thread for two timeouts, and callers fall back to local
+ * quotes. A streamed GET may also be hedged: if the response headers have
+ * not arrived within the observed p95 fetch time, an identical second
+ * request is sent and the body of whichever answers first is read.
+ */
+public class QuoteHttpClient {
+    private static final String TAG = "QuoteHttpClient";
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 15000;
+    private static final int BREAKER_FAILURES = 3;
+    private static final long BREAKER_OPEN_MS = 30 * 1000;
+    private static final long BREAKER_MAX_OPEN_MS = 30 * 60 * 1000;
+    // Below this many samples the p95 says little, so nothing is hedged
+    private static final long MIN_HEDGE_SAMPLES = 20;
+    private static final long MIN_HEDGE_DELAY_US = 100 * 1000;
+    private static final long MAX_HEDGE_DELAY_US = 5 * 1000 * 1000;
+    private static final int MAX_ATTEMPT_THREADS = 4;
+
+    private static QuoteHttpClient instance;
+
+    private final Map<String, CircuitBreaker> breakers = new HashMap<>();
+
+    // Runs the attempts of hedged requests; a full pool means no hedge. Not the
+    // AppExecutors pool: its threads block waiting on these attempts, so
+    // queuing the attempts behind them there could stall every fetch.
+    private final ThreadPoolExecutor attempts = createAttemptExecutor();
+
+    private QuoteHttpClient() {
+        // HttpURLConnection pools keep-alive sockets per host; make sure the
+        // pool is on and large enough for prefetch bursts
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", "5");
+    }
+
+    public static synchronized QuoteHttpClient getInstance() {
+        if (instance == null) {
+            instance = new QuoteHttpClient();
+        }
+        return instance;
+    }
+
+    private static ThreadPoolExecutor createAttemptExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(0, MAX_ATTEMPT_THREADS, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "quote-http-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Thrown without making a request while an endpoint's circuit breaker
+     * is open
+     */
+    public static class CircuitOpenException extends IOException {
+        private final long retryDelayMillis;
+
+        CircuitOpenException(String endpoint, long retryDelayMillis) {
+            super(endpoint + " is unavailable, next attempt in " + retryDelayMillis + " ms");
+            this.retryDelayMillis = retryDelayMillis;
+        }
+
+        public long getRetryDelayMillis() {
+            return retryDelayMillis;
+        }
+    }
+
+    /**
+     * Result of a GET request
+     */
+    public static class Response {
+        private final int code;
+        private final String body;
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public boolean isSuccessful() {
+            return code == HttpURLConnection.HTTP_OK;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Perform a GET request, waiting on the calling thread
+     * @param urlString The URL to fetch
+     * @throws CircuitOpenException if the endpoint has been failing
+     */
+    public Response get(String urlString) throws IOException {
+        CircuitBreaker breaker = breakerOf(urlString);
+        long permit = acquire(breaker, urlString);
+        boolean healthy = false;
+        long start = System.nanoTime();
+        try {
+            Response response = request(urlString);
+            if (!response.isSuccessful()) {
+                QuoteMetrics.FETCH_ERRORS.increment();
+            }
+            healthy = !isServerFailure(response.getCode());
+            return response;
+        } catch (IOException e) {
+            countFailure(e);
+            throw e;
+        } finally {
+            QuoteMetrics.FETCH.recordSince(start);
+            release(breaker, permit, urlString, healthy);
+        }
+    }
+
+    private static Response request(String urlString) throws IOException {
+        HttpURLConnection connection = connect(urlString);
+        int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            // Read the error body so the connection can still be reused
+            drain(connection.getErrorStream());
+            return new Response(responseCode, null);
+        }
+        return new Response(responseCode, readFully(bodyStream(connection)));
+    }
+
+    /**
+     * Reads a response body as it arrives
+     */
+    public interface BodyReader {
+        void read(InputStream body) throws IOException;
+    }
+
+    /**
+     * Perform a GET request on the calling thread without buffering the
+     * body; the reader consumes it straight from the socket.
+     * @return The response code; the reader is only called for 200
+     */
+    public int stream(String urlString, BodyReader reader) throws IOException {
+        return stream(urlString, QuoteMetrics.FETCH, false, reader);
+    }
+
+    /**
+     * Stream a response, hedging the request if asked: when its headers
+     * have not arrived within the p95 fetch time, an identical second
+     * request is sent and whichever answers first is read. Only for URLs
+     * whose responses are interchangeable.
+     */
+    public int stream(String urlString, boolean hedge, BodyReader reader) throws IOException {
+        return stream(urlString, QuoteMetrics.FETCH, hedge, reader);
+    }
+
+    /**
+     * Stream a response, timing it in the given histogram rather than
+     * {@link QuoteMetrics#FETCH}, whose p95 sets the hedge delay
+     */
+    public int stream(String urlString, QuoteMetrics.Histogram latency, BodyReader reader) throws IOException {
+        return stream(urlString, latency, false, reader);
+    }
+
+    private int stream(String urlString, QuoteMetrics.Histogram latency, boolean hedge, BodyReader reader)
+            throws IOException {
+        CircuitBreaker breaker = breakerOf(urlString);
+        long permit = acquire(breaker, urlString);
+        boolean healthy = false;
+        long start = System.nanoTime();
+        try {
+            int responseCode = streamBody(hedge ? hedgedConnect(urlString) : connect(urlString), reader);
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                QuoteMetrics.FETCH_ERRORS.increment();
+            }
+            healthy = !isServerFailure(responseCode);
+            return responseCode;
+        } catch (IOException e) {
+            countFailure(e);
+            throw e;
+        } finally {
+            latency.recordSince(start);
+            release(breaker, permit, urlString, healthy);
+        }
+    }
+
+    private static int streamBody(HttpURLConnection connection, BodyReader reader) throws IOException {
+        int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            drain(connection.getErrorStream());
+            return responseCode;
+        }
+        InputStream in = bodyStream(connection);
+        try {
+            reader.read(in);
+        } finally {
+            // Whatever the reader left is read off so the socket can be reused
+            drain(in);
+        }
+        return responseCode;
+    }
+
+    /**
+     * Send a request and wait for its response headers
+     */
+    private static HttpURLConnection connect(String urlString) throws IOException {
+        HttpURLConnection connection = open(urlString);
+        connection.getResponseCode();
+        return connection;
+    }
+
+    /**
+     * Connect, and connect again if the first request has not answered
+     * within the hedge delay
+     * @return The connection of the first healthy answer, or of the last
+     * answer if none was healthy
+     */
+    private HttpURLConnection hedgedConnect(String urlString) throws IOException {
+        long delayMicros = hedgeDelayMicros();
+        Hedge hedge = new Hedge(urlString);
+        if (delayMicros == 0 || !hedge.start(attempts)) {
+            return connect(urlString);
+        }
+        try {
+            HttpURLConnection connection = hedge.take(TimeUnit.MICROSECONDS.toNanos(delayMicros));
+            if (connection == null) {
+                if (hedge.start(attempts)) {
+                    QuoteMetrics.FETCH_HEDGED.increment();
+                }
+                // If every attempt thread was busy this waits for the first request alone
+                connection = hedge.take(Long.MAX_VALUE);
+            }
+            return connection;
+        } catch (InterruptedException e) {
+            hedge.abandon();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + urlString);
+        }
+    }
+
+    /**
+     * @return How long to wait before hedging, in microseconds: the p95 of
+     * recent fetches, clamped; 0 if there are too few fetches to tell
+     */
+    private static long hedgeDelayMicros() {
+        if (QuoteMetrics.FETCH.getCount() < MIN_HEDGE_SAMPLES) {
+            return 0;
+        }
+        long p95 = QuoteMetrics.FETCH.getPercentileMicros(0.95);
+        return Math.max(MIN_HEDGE_DELAY_US, Math.min(MAX_HEDGE_DELAY_US, p95));
+    }
+
+    /**
+     * The attempts of one hedged request. The first attempt to answer with
+     * anything but a server failure is taken; an attempt that answers after
+     * that is drained and closed on its own thread, so its socket still
+     * goes back to the keep-alive pool.
+     */
+    private static final class Hedge {
+        private final String urlString;
+        private int started;
+        private int running;
+        private boolean taken;
+        private HttpURLConnection answer;
+        private boolean answerHealthy;
+        private int answerAttempt;
+        private IOException failure;
+
+        Hedge(String urlString) {
+            this.urlString = urlString;
+        }
+
+        /**
+         * @return false if every attempt thread is busy
+         */
+        boolean start(Executor executor) {
+            int attempt;
+            synchronized (this) {
+                attempt = ++started;
+                running++;
+            }
+            try {
+                executor.execute(() -> run(attempt));
+                return true;
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    started--;
+                    running--;
+                }
+                return false;
+            }
+        }
+
+        private void run(int attempt) {
+            HttpURLConnection connection = null;
+            boolean healthy = false;
+            IOException error = null;
+            try {
+                connection = connect(urlString);
+                healthy = !isServerFailure(connection.getResponseCode());
+            } catch (IOException e) {
+                error = e;
+            }
+            HttpURLConnection unused = connection;
+            synchronized (this) {
+                running--;
+                if (!taken) {
+                    if (connection != null && (answer == null || !answerHealthy)) {
+                        unused = answer;
+                        answer = connection;
+                        answerHealthy = healthy;
+                        answerAttempt = attempt;
+                    } else if (error != null) {
+                        failure = error;
+                    }
+                    notifyAll();
+                }
+            }
+            discard(unused);
+        }
+
+        /**
+         * Wait for a healthy answer, or for every attempt to finish
+         * @return The answer, or null if there is none yet after the timeout
+         */
+        synchronized HttpURLConnection take(long timeoutNanos) throws IOException, InterruptedException {
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (!answerHealthy && running > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            taken = true;
+            if (answer == null) {
+                throw failure;
+            }
+            if (answerAttempt > 1) {
+                QuoteMetrics.FETCH_HEDGE_WINS.increment();
+            }
+            return answer;
+        }
+
+        void abandon() {
+            HttpURLConnection unused;
+            synchronized (this) {
+                taken = true;
+                unused = answer;
+                answer = null;
+            }
+            discard(unused);
+        }
+    }
+
+    /**
+     * @return The breaker of the URL's endpoint
+     */
+    private CircuitBreaker breakerOf(String urlString) {
+        String endpoint = endpointOf(urlString);
+        synchronized (breakers) {
+            CircuitBreaker breaker = breakers.get(endpoint);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(BREAKER_FAILURES, BREAKER_OPEN_MS, BREAKER_MAX_OPEN_MS);
+                breakers.put(endpoint, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * @return The permit of a request the breaker has let through
+     * @throws CircuitOpenException if it is open
+     */
+    private static long acquire(CircuitBreaker breaker, String urlString) throws CircuitOpenException {
+        long permit = breaker.tryAcquire();
+        if (permit == CircuitBreaker.REFUSED) {
+            QuoteMetrics.FETCH_REFUSED.increment();
+            throw new CircuitOpenException(endpointOf(urlString), breaker.getRetryDelayMillis());
+        }
+        return permit;
+    }
+
+    private static void release(CircuitBreaker breaker, long permit, String urlString, boolean healthy) {
+        if (healthy) {
+            breaker.onSuccess(permit);
+        } else if (breaker.onFailure(permit)) {
+            QuoteMetrics.BREAKER_OPENED.increment();
+            Log.w(TAG, endpointOf(urlString) + " failing, pausing requests for "
+                    + breaker.getRetryDelayMillis() + " ms");
+        }
+    }
+
+    /**
+     * @return The host and first path segment of a URL with more than one,
+     * e.g. "example.com/packs" for "https://example.com/packs/kjv.json";
+     * otherwise the host alone, which covers bible-api.com lookups such as
+     * "bible-api.com/John%203:16"
+     */
+    static String endpointOf(String urlString) {
+        int hostStart = urlString.indexOf("://");
+        hostStart = hostStart < 0 ? 0 : hostStart + 3;
+        int pathStart = urlString.indexOf('/', hostStart);
+        if (pathStart < 0) {
+            return urlString.substring(hostStart);
+        }
+        int segmentEnd = urlString.indexOf('/', pathStart + 1);
+        int queryStart = urlString.indexOf('?', pathStart);
+        if (segmentEnd < 0 || (queryStart >= 0 && queryStart < segmentEnd)) {
+            return urlString.substring(hostStart, pathStart);
+        }
+        return urlString.substring(hostStart, segmentEnd);
+    }
+
+    /**
+     * @return true for responses that say the endpoint itself is unwell,
+     * as opposed to the request being wrong
+     */
+    private static boolean isServerFailure(int responseCode) {
+        return responseCode >= 500 || responseCode == 429;
+    }
+
+    private static void countFailure(IOException e) {
+        QuoteMetrics.FETCH_ERRORS.increment();
+        if (e instanceof SocketTimeoutException) {
+            QuoteMetrics.FETCH_TIMEOUTS.increment();
+        }
+    }
+
+    private static HttpURLConnection open(String urlString) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(urlString).openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("Accept", "application/json");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        return connection;
+    }
+
+    private static InputStream bodyStream(HttpURLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        return in;
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read off and close a response that will not be used
+     */
+    private static void discard(HttpURLConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            drain(connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream());
+        } catch (IOException e) {
+            // The connection will simply not be reused
+        }
+    }
+
+    private static void drain(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // Discard
+            }
+        } catch (IOException e) {
+            // The connection will simply not be reused
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
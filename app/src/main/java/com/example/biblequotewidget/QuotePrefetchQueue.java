@@ -0,0 +1,281 @@
+package com.example.biblequotewidget;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded per-theme rings of verses fetched ahead of time from bible-api.com.
+ *
+ * All widgets showing a theme share its ring. A refresh takes the oldest
+ * verse in O(1) without touching the network. Rings are only filled by
+ * {@link QuoteRefillService} while the device is charging on an unmetered
+ * network, each fill fetching just enough to top the ring up, so refreshes
+ * never wake the radio. Rings are saved to small files so they survive the
+ * widget process being killed.
+ */
+public class QuotePrefetchQueue {
+    private static final String TAG = "QuotePrefetchQueue";
+    private static final String RING_DIR = "prefetch";
+    private static final int CAPACITY = 32;
+    private static final int LOW_WATER_MARK = 8;
+
+    private static QuotePrefetchQueue instance;
+
+    private final Context context;
+    private final Map<String, Ring> rings = new HashMap<>();
+
+    private QuotePrefetchQueue(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized QuotePrefetchQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new QuotePrefetchQueue(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Take the next pre-fetched verse for a theme
+     * @return The verse, or null if the ring is empty
+     */
+    public LocalQuoteDatabase.BibleQuote poll(String theme) {
+        return poll(theme, 0);
+    }
+
+    /**
+     * Take the oldest pre-fetched verse for a theme that is no longer than
+     * the given length. Longer verses stay queued for larger widgets.
+     * @param maxLength The most characters that fit, or 0 for no limit
+     * @return The verse, or null if none fits
+     */
+    public LocalQuoteDatabase.BibleQuote poll(String theme, int maxLength) {
+        Ring ring = getRing(theme);
+        LocalQuoteDatabase.BibleQuote quote;
+        synchronized (ring) {
+            quote = ring.poll(maxLength);
+        }
+        if (quote != null) {
+            persist(ring);
+        }
+        return quote;
+    }
+
+    /**
+     * @return true if the theme's ring is below its low water mark
+     */
+    public boolean needsRefill(String theme) {
+        Ring ring = getRing(theme);
+        synchronized (ring) {
+            return ring.size < LOW_WATER_MARK;
+        }
+    }
+
+    /**
+     * Top up a theme's ring with as many verses as it has free slots, as one
+     * batch of passage requests. The verses are shuffled so that refreshes
+     * do not read through a chapter in order.
+     * @param done Called once the batch has finished, on any thread
+     */
+    public void fill(String theme, final Runnable done) {
+        final Ring ring = getRing(theme);
+        int free;
+        synchronized (ring) {
+            free = ring.refilling ? 0 : CAPACITY - ring.size;
+            if (free > 0) {
+                ring.refilling = true;
+            }
+        }
+        if (free == 0) {
+            done.run();
+            return;
+        }
+
+        final List<LocalQuoteDatabase.BibleQuote> fetched = new ArrayList<>();
+        BibleQuoteManager.getInstance(context).getRandomQuotesByTheme(ring.theme, free,
+                new BibleQuoteManager.BatchCallback() {
+            @Override
+            public void onQuoteReceived(BibleQuoteManager.BibleQuote quote) {
+                synchronized (fetched) {
+                    fetched.add(new LocalQuoteDatabase.BibleQuote(quote.getText(), quote.getReference(),
+                            ring.theme));
+                }
+            }
+
+            @Override
+            public void onError(String error) {
+                Log.d(TAG, "Fill for " + ring.theme + " failed: " + error);
+            }
+
+            @Override
+            public void onComplete() {
+                synchronized (fetched) {
+                    Collections.shuffle(fetched);
+                    synchronized (ring) {
+                        for (int i = 0; i < fetched.size() && ring.size < CAPACITY; i++) {
+                            ring.offer(fetched.get(i));
+                        }
+                        ring.refilling = false;
+                    }
+                }
+                persist(ring);
+                done.run();
+            }
+        });
+    }
+
+    private Ring getRing(String theme) {
+        String key = theme.toLowerCase();
+        synchronized (rings) {
+            Ring ring = rings.get(key);
+            if (ring == null) {
+                ring = new Ring(key);
+                load(ring);
+                rings.put(key, ring);
+            }
+            return ring;
+        }
+    }
+
+    private File ringFile(Ring ring) {
+        return new File(new File(context.getFilesDir(), RING_DIR), ring.theme + ".ring");
+    }
+
+    private void load(Ring ring) {
+        File file = ringFile(ring);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String text = in.readUTF();
+                    String reference = in.readUTF();
+                    ring.offer(new LocalQuoteDatabase.BibleQuote(text, reference, ring.theme));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable prefetch ring for " + ring.theme, e);
+        }
+    }
+
+    private void persist(final Ring ring) {
+        AppExecutors.executeOrRun(() -> {
+            synchronized (ring.fileLock) {
+                writeRing(ring);
+            }
+        });
+    }
+
+    private void writeRing(Ring ring) {
+        LocalQuoteDatabase.BibleQuote[] snapshot;
+        synchronized (ring) {
+            snapshot = ring.snapshot();
+        }
+        File file = ringFile(ring);
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(snapshot.length);
+                for (LocalQuoteDatabase.BibleQuote quote : snapshot) {
+                    out.writeUTF(quote.getText());
+                    out.writeUTF(quote.getReference());
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving prefetch ring for " + ring.theme, e);
+        }
+    }
+
+    /**
+     * Fixed-size circular buffer; guarded by its own monitor
+     */
+    private static class Ring {
+        final String theme;
+        final LocalQuoteDatabase.BibleQuote[] slots = new LocalQuoteDatabase.BibleQuote[CAPACITY];
+        // Serialises writes of this ring's file
+        final Object fileLock = new Object();
+        int head;
+        int size;
+        boolean refilling;
+
+        Ring(String theme) {
+            this.theme = theme;
+        }
+
+        LocalQuoteDatabase.BibleQuote poll() {
+            if (size == 0) {
+                return null;
+            }
+            LocalQuoteDatabase.BibleQuote quote = slots[head];
+            slots[head] = null;
+            head = (head + 1) % CAPACITY;
+            size--;
+            return quote;
+        }
+
+        /**
+         * Remove the oldest verse of at most maxLength characters, closing the gap it leaves
+         */
+        LocalQuoteDatabase.BibleQuote poll(int maxLength) {
+            for (int i = 0; i < size; i++) {
+                LocalQuoteDatabase.BibleQuote quote = slots[(head + i) % CAPACITY];
+                if (maxLength > 0 && quote.getText().length() > maxLength) {
+                    continue;
+                }
+                for (int j = i; j + 1 < size; j++) {
+                    slots[(head + j) % CAPACITY] = slots[(head + j + 1) % CAPACITY];
+                }
+                slots[(head + size - 1) % CAPACITY] = null;
+                size--;
+                return quote;
+            }
+            return null;
+        }
+
+        void offer(LocalQuoteDatabase.BibleQuote quote) {
+            if (size == CAPACITY) {
+                // Full: drop the oldest verse
+                poll();
+            }
+            slots[(head + size) % CAPACITY] = quote;
+            size++;
+        }
+
+        LocalQuoteDatabase.BibleQuote[] snapshot() {
+            LocalQuoteDatabase.BibleQuote[] copy = new LocalQuoteDatabase.BibleQuote[size];
+            for (int i = 0; i < size; i++) {
+                copy[i] = slots[(head + i) % CAPACITY];
+            }
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.biblequotewidget;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Job that does the app's bulk downloads while the device is charging on
+ * an unmetered network: it fills the prefetch queues of every theme a
+ * widget shows and checks for a new corpus pack. A daily job covers the
+ * corpus check; a one-off job is added whenever a refresh finds a queue
+ * running low. Either way the system holds the job until both conditions
+ * hold, so the widget never turns the radio on for a quote.
+ */
+public class QuoteRefillService extends JobService {
+    private static final String TAG = "QuoteRefillService";
+    static final int JOB_ID_DAILY = 2;
+    static final int JOB_ID_SOON = 3;
+    private static final long DAILY_INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        Log.d(TAG, "Refill job started");
+        Runnable refill = () -> {
+            if (CorpusPackManager.isEnabled(this)) {
+                try {
+                    CorpusPackManager.getInstance(this).updateIfDue();
+                } catch (Exception e) {
+                    Log.e(TAG, "Error checking for a corpus pack", e);
+                }
+            }
+            fillQueues(() -> jobFinished(params, false));
+        };
+        if (!AppExecutors.execute(refill)) {
+            // Never fetch on the main thread; the scheduler retries with backoff
+            Log.w(TAG, "Background pool busy, rescheduling refill");
+            jobFinished(params, true);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Unplugged or off Wi-Fi; whatever was fetched is kept, and the rest waits
+        return params.getJobId() == JOB_ID_SOON;
+    }
+
+    /**
+     * Fill the queue of each theme shown by a widget that is running low
+     * @param done Called once every fill has finished
+     */
+    private void fillQueues(Runnable done) {
+        if (getResources().getBoolean(R.bool.config_verse_of_the_day)) {
+            // The verse of the day never draws from the queues
+            done.run();
+            return;
+        }
+        QuotePrefetchQueue prefetchQueue = QuotePrefetchQueue.getInstance(this);
+        Set<String> themes = new HashSet<>();
+        for (String theme : widgetThemes(this)) {
+            if (prefetchQueue.needsRefill(theme)) {
+                themes.add(theme);
+            }
+        }
+        if (themes.isEmpty()) {
+            done.run();
+            return;
+        }
+
+        AtomicInteger pending = new AtomicInteger(themes.size());
+        for (String theme : themes) {
+            prefetchQueue.fill(theme, () -> {
+                if (pending.decrementAndGet() == 0) {
+                    Log.d(TAG, "Filled the queues of " + themes.size() + " themes");
+                    done.run();
+                }
+            });
+        }
+    }
+
+    private static Set<String> widgetThemes(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, BibleQuoteWidgetProvider.class));
+        WidgetStateStore stateStore = WidgetStateStore.getInstance(context);
+        Set<String> themes = new HashSet<>();
+        for (int appWidgetId : appWidgetIds) {
+            themes.add(stateStore.get(appWidgetId).getTheme().toLowerCase());
+        }
+        return themes;
+    }
+
+    /**
+     * Schedule the daily corpus check, keeping one that is already scheduled.
+     * Builds without a pack server have nothing to check, so none is scheduled.
+     */
+    public static void scheduleDaily(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+        if (!CorpusPackManager.isEnabled(context)) {
+            jobScheduler.cancel(JOB_ID_DAILY);
+            return;
+        }
+        if (isPending(jobScheduler, JOB_ID_DAILY)) {
+            return;
+        }
+        schedule(jobScheduler, newJob(context, JOB_ID_DAILY).setPeriodic(DAILY_INTERVAL));
+    }
+
+    /**
+     * Ask for a refill at the next chance, if one is not already waiting
+     */
+    public static void requestRefill(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null || isPending(jobScheduler, JOB_ID_SOON)) {
+            return;
+        }
+        schedule(jobScheduler, newJob(context, JOB_ID_SOON));
+    }
+
+    public static void cancel(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler != null) {
+            jobScheduler.cancel(JOB_ID_DAILY);
+            jobScheduler.cancel(JOB_ID_SOON);
+        }
+    }
+
+    private static JobInfo.Builder newJob(Context context, int jobId) {
+        return new JobInfo.Builder(jobId, new ComponentName(context, QuoteRefillService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPersisted(true);
+    }
+
+    private static boolean isPending(JobScheduler jobScheduler, int jobId) {
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == jobId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void schedule(JobScheduler jobScheduler, JobInfo.Builder builder) {
+        JobInfo job = builder.build();
+        if (jobScheduler.schedule(job) != JobScheduler.RESULT_SUCCESS) {
+            Log.e(TAG, "Could not schedule refill job " + job.getId());
+        }
+    }
+}
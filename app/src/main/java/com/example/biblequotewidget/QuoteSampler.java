@@ -0,0 +1,267 @@
+package com.example.biblequotewidget;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Draws quotes for a widget without repeats.
+ *
+ * Each widget walks its theme's pool in a shuffled order given by a
+ * {@link KeyedPermutation}, and records every quote it shows in a bitset
+ * with one bit per quote id (about 4 KB for the full corpus). Quotes already
+ * shown are skipped, which also covers verses seen under a previous theme.
+ * Once the whole pool has been shown its bits are cleared and a new order
+ * starts. Drawing allocates nothing beyond the returned quote.
+ *
+ * Histories are written to disk in the background, one small file per widget.
+ */
+public class QuoteSampler {
+    private static final String TAG = "QuoteSampler";
+    private static final String HISTORY_DIR = "history";
+    private static final int RECORD_VERSION = 1;
+
+    private static QuoteSampler instance;
+
+    private final File directory;
+    private final SparseArray<History> histories = new SparseArray<>();
+    private final SparseArray<History> dirty = new SparseArray<>();
+    private final Object flushLock = new Object();
+    private boolean flushScheduled;
+
+    private QuoteSampler(Context context) {
+        this.directory = new File(context.getApplicationContext().getFilesDir(), HISTORY_DIR);
+    }
+
+    public static synchronized QuoteSampler getInstance(Context context) {
+        if (instance == null) {
+            instance = new QuoteSampler(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Shown-quote history and position in the shuffled order for one widget
+     */
+    private static class History {
+        long key;
+        int cycle;
+        // Theme and length class of the pool being walked
+        String pool = "";
+        int poolSize;
+        int cursor;
+        long[] shown;
+        KeyedPermutation order;
+
+        History(long key, int idCount) {
+            this.key = key;
+            this.shown = new long[(idCount + 63) >>> 6];
+        }
+
+        boolean isShown(int id) {
+            return (shown[id >>> 6] & (1L << id)) != 0;
+        }
+
+        void setShown(int id, boolean value) {
+            if (value) {
+                shown[id >>> 6] |= 1L << id;
+            } else {
+                shown[id >>> 6] &= ~(1L << id);
+            }
+        }
+    }
+
+    /**
+     * Draw the next quote for a widget, never one it has shown before
+     * until every quote of the theme has been shown. The history is kept by
+     * verse, so it carries over when the widget changes translation or size.
+     * {@link LocalQuoteDatabase#open(Context)} must have been called.
+     * @param maxLengthClass Only draw verses up to this length class, see
+     *                       {@link VerseStore#maxLengthClass(int)}
+     */
+    public LocalQuoteDatabase.BibleQuote next(int appWidgetId, String theme, String translation,
+                                              int maxLengthClass) {
+        int id;
+        synchronized (this) {
+            History history = history(appWidgetId);
+            String pool = theme + ":" + maxLengthClass;
+            int poolSize = LocalQuoteDatabase.getPoolSize(theme, maxLengthClass);
+            if (!pool.equals(history.pool) || history.poolSize != poolSize) {
+                // New pool: start a fresh order but keep what has been shown
+                history.pool = pool;
+                history.poolSize = poolSize;
+                history.cursor = 0;
+                history.order = null;
+            }
+            while (true) {
+                if (history.cursor >= history.poolSize) {
+                    // Everything has been shown: forget this pool and reshuffle
+                    for (int position = 0; position < history.poolSize; position++) {
+                        history.setShown(LocalQuoteDatabase.getPoolItem(theme, maxLengthClass, position), false);
+                    }
+                    history.cycle++;
+                    history.cursor = 0;
+                    history.order = null;
+                }
+                if (history.order == null) {
+                    history.order = new KeyedPermutation(history.poolSize,
+                            KeyedPermutation.mix(history.key + history.cycle));
+                }
+                id = LocalQuoteDatabase.getPoolItem(theme, maxLengthClass, history.order.get(history.cursor++));
+                if (!history.isShown(id)) {
+                    history.setShown(id, true);
+                    break;
+                }
+            }
+            markDirty(appWidgetId, history);
+        }
+        return LocalQuoteDatabase.getQuoteById(id, theme, translation);
+    }
+
+    public synchronized void delete(int appWidgetId) {
+        histories.remove(appWidgetId);
+        dirty.remove(appWidgetId);
+        if (!fileFor(appWidgetId).delete()) {
+            Log.d(TAG, "No history file for widget " + appWidgetId);
+        }
+    }
+
+    private History history(int appWidgetId) {
+        int idCount = LocalQuoteDatabase.getQuoteIdCount();
+        History history = histories.get(appWidgetId);
+        if (history == null) {
+            history = load(appWidgetId, idCount);
+            histories.put(appWidgetId, history);
+        }
+        if (history.shown.length != (idCount + 63) >>> 6) {
+            // The corpus changed, so the ids no longer mean the same verses
+            history = new History(history.key, idCount);
+            histories.put(appWidgetId, history);
+        }
+        return history;
+    }
+
+    private void markDirty(int appWidgetId, History history) {
+        dirty.put(appWidgetId, history);
+        if (!flushScheduled) {
+            // If the pool is full the history stays dirty; the next change or the job's flush() writes it
+            flushScheduled = AppExecutors.execute(this::flush);
+        }
+    }
+
+    /**
+     * Write every changed history now
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            SparseArray<byte[]> pending;
+            synchronized (this) {
+                flushScheduled = false;
+                pending = new SparseArray<>(dirty.size());
+                for (int i = 0; i < dirty.size(); i++) {
+                    pending.put(dirty.keyAt(i), encode(dirty.valueAt(i)));
+                }
+                dirty.clear();
+            }
+            if (pending.size() == 0) {
+                return;
+            }
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                Log.e(TAG, "Could not create history directory");
+                return;
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                write(pending.keyAt(i), pending.valueAt(i));
+            }
+        }
+    }
+
+    private File fileFor(int appWidgetId) {
+        return new File(directory, appWidgetId + ".hist");
+    }
+
+    private static byte[] encode(History history) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + history.shown.length * 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(RECORD_VERSION);
+            out.writeLong(history.key);
+            out.writeInt(history.cycle);
+            out.writeUTF(history.pool);
+            out.writeInt(history.poolSize);
+            out.writeInt(history.cursor);
+            out.writeInt(history.shown.length);
+            for (long word : history.shown) {
+                out.writeLong(word);
+            }
+        } catch (IOException e) {
+            // Not thrown by an in-memory stream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void write(int appWidgetId, byte[] record) {
+        File file = fileFor(appWidgetId);
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(record);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing history for widget " + appWidgetId, e);
+        }
+    }
+
+    private History load(int appWidgetId, int idCount) {
+        File file = fileFor(appWidgetId);
+        if (file.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    int version = in.readUnsignedByte();
+                    if (version != RECORD_VERSION) {
+                        throw new IOException("Unknown record version " + version);
+                    }
+                    History history = new History(in.readLong(), idCount);
+                    history.cycle = in.readInt();
+                    history.pool = in.readUTF();
+                    history.poolSize = in.readInt();
+                    history.cursor = in.readInt();
+                    long[] shown = new long[in.readInt()];
+                    for (int i = 0; i < shown.length; i++) {
+                        shown[i] = in.readLong();
+                    }
+                    if (shown.length == history.shown.length) {
+                        history.shown = shown;
+                    } else {
+                        // Recorded against a different corpus; keep only the key
+                        history.pool = "";
+                    }
+                    return history;
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Resetting unreadable history for widget " + appWidgetId, e);
+            }
+        }
+        return new History(ThreadLocalRandom.current().nextLong(), idCount);
+    }
+}
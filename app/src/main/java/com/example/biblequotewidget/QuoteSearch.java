@@ -0,0 +1,369 @@
+package com.example.biblequotewidget;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Full-text search over the local verse corpus and the saved quotes.
+ *
+ * Two {@link SearchIndex} instances are kept: one over the verse store,
+ * built once per store checksum and then loaded from disk, and one over
+ * saved quotes. Saving or deleting a quote appends one record to a journal
+ * next to the saved index rather than rewriting it; the journal is replayed
+ * when the index is loaded and folded into it every
+ * {@value #MAX_JOURNAL_RECORDS} records. Nothing is loaded until
+ * {@link #open()}, so the widget process can record saves without reading
+ * either index. Index work happens one task at a time in the background.
+ */
+public class QuoteSearch {
+    private static final String TAG = "QuoteSearch";
+    private static final String INDEX_DIR = "search";
+    private static final String SAVED_INDEX_FILE = "saved.idx";
+    private static final String SAVED_JOURNAL_FILE = "saved.log";
+    private static final String CORPUS_INDEX_PREFIX = "corpus-";
+    private static final int MAX_JOURNAL_RECORDS = 64;
+    private static final int OP_ADD = 1;
+    private static final int OP_REMOVE = 2;
+
+    private static QuoteSearch instance;
+
+    private final Context context;
+    // Index loads and updates, one at a time on the shared pool
+    private final Executor indexExecutor = AppExecutors.serial();
+    private volatile SearchIndex savedIndex;
+    private volatile SearchIndex corpusIndex;
+    private volatile VerseStore corpusStore;
+    // Records in the journal file; only touched on indexExecutor
+    private int journalRecords = -1;
+    private boolean opened;
+    private volatile boolean loaded;
+
+    private QuoteSearch(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized QuoteSearch getInstance(Context context) {
+        if (instance == null) {
+            instance = new QuoteSearch(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Start loading both indexes in the background, building any that are
+     * missing or stale. Only screens that search need to call this.
+     */
+    public synchronized void open() {
+        if (!opened) {
+            opened = true;
+            indexExecutor.execute(this::loadIndexes);
+        }
+    }
+
+    /**
+     * @return true once {@link #open()} has finished loading the indexes
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Run a task on the index thread once the indexes have loaded, opening
+     * them if that has not been asked for yet
+     */
+    public void whenLoaded(Runnable task) {
+        open();
+        indexExecutor.execute(task);
+    }
+
+    /**
+     * A search hit, resolved to its text
+     */
+    public static class Result {
+        private final String text;
+        private final String reference;
+        private final String theme;
+        private final int savedId;
+
+        Result(String text, String reference, String theme, int savedId) {
+            this.text = text;
+            this.reference = reference;
+            this.theme = theme;
+            this.savedId = savedId;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public String getReference() {
+            return reference;
+        }
+
+        public String getTheme() {
+            return theme;
+        }
+
+        /**
+         * @return The saved quote id, or -1 if the hit came from the verse corpus
+         */
+        public int getSavedId() {
+            return savedId;
+        }
+
+        public boolean isSaved() {
+            return savedId >= 0;
+        }
+    }
+
+    /**
+     * Search saved quotes first, then the verse corpus. Indexes that are
+     * still loading are skipped. Call off the main thread, since hits are
+     * resolved to text from the saved quote log and the verse store.
+     */
+    public List<Result> search(String query, int limit) {
+        List<Result> results = new ArrayList<>();
+        SearchIndex saved = savedIndex;
+        if (saved != null) {
+            SavedQuoteStore store = SavedQuoteStore.getInstance(context);
+            for (SearchIndex.Hit hit : saved.search(query, limit)) {
+                SavedQuotesActivity.SavedQuote quote = store.get(hit.getDocId());
+                if (quote != null) {
+                    results.add(new Result(quote.getQuote(), quote.getReference(), quote.getTheme(),
+                            quote.getId()));
+                }
+            }
+        }
+        SearchIndex corpus = corpusIndex;
+        VerseStore store = corpusStore;
+        if (corpus != null && store != null && results.size() < limit) {
+            for (SearchIndex.Hit hit : corpus.search(query, limit - results.size())) {
+                int verse = hit.getDocId();
+                results.add(new Result(store.getText(verse), store.getReference(verse), "", -1));
+            }
+        }
+        return results;
+    }
+
+    public void onQuoteSaved(int savedId, String quote, String reference) {
+        indexExecutor.execute(() -> {
+            String text = quote + " " + reference;
+            SearchIndex saved = savedIndex;
+            if (saved != null) {
+                saved.add(savedId, text);
+            }
+            journal(OP_ADD, savedId, text);
+        });
+    }
+
+    public void onQuoteDeleted(int savedId, String quote, String reference) {
+        indexExecutor.execute(() -> {
+            String text = quote + " " + reference;
+            SearchIndex saved = savedIndex;
+            if (saved != null) {
+                saved.remove(savedId, text);
+            }
+            journal(OP_REMOVE, savedId, text);
+        });
+    }
+
+    private File indexDir() {
+        return new File(context.getFilesDir(), INDEX_DIR);
+    }
+
+    private void loadIndexes() {
+        try {
+            loadIndexesFromDisk();
+        } finally {
+            loaded = true;
+        }
+    }
+
+    private void loadIndexesFromDisk() {
+        File dir = indexDir();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Could not create index directory");
+            return;
+        }
+        savedIndex = loadSavedIndex(dir);
+
+        LocalQuoteDatabase.open(context);
+        VerseStore store = LocalQuoteDatabase.getVerseStore();
+        if (store == null) {
+            return;
+        }
+        // Keyed on the store's checksum, so a new corpus with the same verse count is still reindexed
+        String name = CORPUS_INDEX_PREFIX + store.getTranslation()
+                + String.format(Locale.US, "-%08x.idx", store.getChecksum());
+        File corpusFile = new File(dir, name);
+        SearchIndex corpus = null;
+        if (corpusFile.exists()) {
+            try {
+                corpus = SearchIndex.readFrom(corpusFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Corpus index unreadable, rebuilding", e);
+            }
+        }
+        if (corpus == null) {
+            corpus = new SearchIndex();
+            for (int i = 0; i < store.getVerseCount(); i++) {
+                corpus.add(i, store.getText(i));
+            }
+            try {
+                corpus.writeTo(corpusFile);
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing corpus index", e);
+            }
+            deleteOtherCorpusIndexes(dir, name);
+        }
+        corpusStore = store;
+        corpusIndex = corpus;
+    }
+
+    private static void deleteOtherCorpusIndexes(File dir, String keep) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(CORPUS_INDEX_PREFIX) && !name.equals(keep)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Read the saved quote index and replay its journal over it. If either
+     * is unreadable the index is rebuilt from the saved quotes themselves.
+     */
+    private SearchIndex loadSavedIndex(File dir) {
+        File savedFile = new File(dir, SAVED_INDEX_FILE);
+        File journalFile = new File(dir, SAVED_JOURNAL_FILE);
+        SearchIndex saved = null;
+        if (savedFile.exists()) {
+            try {
+                saved = SearchIndex.readFrom(savedFile);
+                journalRecords = replayJournal(journalFile, saved);
+            } catch (IOException e) {
+                Log.w(TAG, "Saved quote index unreadable, rebuilding", e);
+                saved = null;
+            }
+        }
+        if (saved == null) {
+            saved = buildSavedIndex();
+            compact(saved);
+        } else if (journalRecords >= MAX_JOURNAL_RECORDS) {
+            compact(saved);
+        }
+        return saved;
+    }
+
+    /**
+     * Apply the journal's records to an index
+     * @return The number of records applied
+     * @throws IOException if the journal is torn or corrupt
+     */
+    private static int replayJournal(File journalFile, SearchIndex index) throws IOException {
+        if (!journalFile.exists()) {
+            return 0;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        try {
+            int records = 0;
+            while (true) {
+                int op;
+                try {
+                    op = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    return records;
+                }
+                int savedId = in.readInt();
+                String text = in.readUTF();
+                if (op == OP_ADD) {
+                    index.add(savedId, text);
+                } else if (op == OP_REMOVE) {
+                    index.remove(savedId, text);
+                } else {
+                    throw new IOException("Unknown journal op " + op);
+                }
+                records++;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Append a change to the saved index journal, or fold the journal into
+     * the index file once it is long and the index is loaded
+     */
+    private void journal(int op, int savedId, String text) {
+        File journalFile = new File(indexDir(), SAVED_JOURNAL_FILE);
+        SearchIndex saved = savedIndex;
+        if (saved != null && journalRecords >= MAX_JOURNAL_RECORDS) {
+            compact(saved);
+            return;
+        }
+        if (!journalFile.getParentFile().isDirectory() && !journalFile.getParentFile().mkdirs()) {
+            Log.e(TAG, "Could not create index directory");
+            return;
+        }
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+            try {
+                out.writeByte(op);
+                out.writeInt(savedId);
+                out.writeUTF(text);
+            } finally {
+                out.close();
+            }
+            if (journalRecords >= 0) {
+                journalRecords++;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error appending to saved quote journal", e);
+            if (saved != null) {
+                compact(saved);
+            }
+        }
+    }
+
+    /**
+     * Write the whole saved index and start an empty journal
+     */
+    private void compact(SearchIndex saved) {
+        File dir = indexDir();
+        try {
+            saved.writeTo(new File(dir, SAVED_INDEX_FILE));
+            // The index now holds every journalled change; replaying them again would be harmless
+            new File(dir, SAVED_JOURNAL_FILE).delete();
+            journalRecords = 0;
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing saved quote index", e);
+        }
+    }
+
+    private SearchIndex buildSavedIndex() {
+        SearchIndex index = new SearchIndex();
+        for (SavedQuotesActivity.SavedQuote quote : SavedQuoteStore.getInstance(context).getAll()) {
+            index.add(quote.getId(), quote.getQuote() + " " + quote.getReference());
+        }
+        return index;
+    }
+}
@@ -2,98 +2,138 @@ package com.example.biblequotewidget;
 
 import android.app.AlarmManager;
 import android.app.PendingIntent;
-import android.app.Service;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.os.IBinder;
+import android.os.Build;
 import android.util.Log;
 
-import java.util.Calendar;
-import java.util.Random;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
 
-public class QuoteUpdateService extends Service {
+/**
+ * Periodic job that refreshes every widget. The refresh and any pending
+ * state writes share the one wakeup, which the system places inside a flex
+ * window while the device is idle. It never uses the network: downloads
+ * are left to {@link QuoteRefillService}.
+ */
+public class QuoteUpdateService extends JobService {
     private static final String TAG = "QuoteUpdateService";
-    private static final long INTERVAL_DAY = AlarmManager.INTERVAL_DAY;
-    private static final long INTERVAL_HOUR = AlarmManager.INTERVAL_HOUR;
+    static final int JOB_ID_REFRESH = 1;
+    private static final long REFRESH_INTERVAL = TimeUnit.HOURS.toMillis(6);
+    // The job runs somewhere in the last two hours of each interval, as the 4-8 hour alarm did
+    private static final long REFRESH_FLEX = TimeUnit.HOURS.toMillis(2);
 
     @Override
-    public IBinder onBind(Intent intent) {
-        return null;
+    public boolean onStartJob(final JobParameters params) {
+        Log.d(TAG, "Refresh job started");
+        final long start = System.nanoTime();
+
+        Runnable refresh = () -> {
+            try {
+                // Update all widgets
+                WidgetRefreshEngine.refreshAll(this);
+
+                // Housekeeping that can ride along on the same wakeup
+                WidgetStateStore.getInstance(this).flush();
+                QuoteSampler.getInstance(this).flush();
+            } catch (Exception e) {
+                Log.e(TAG, "Error refreshing widgets", e);
+            } finally {
+                QuoteMetrics.WAKEUP.recordSince(start);
+                jobFinished(params, false);
+            }
+        };
+        if (!AppExecutors.execute(refresh)) {
+            // Never refresh on the main thread; the scheduler retries with backoff
+            Log.w(TAG, "Background pool busy, rescheduling refresh");
+            jobFinished(params, true);
+        }
+        return true;
     }
 
     @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
-        Log.d(TAG, "Service started");
-        
-        // Update all widgets
-        updateAllWidgets();
-        
-        // Schedule next update with some randomization
-        scheduleNextUpdate();
-        
-        return START_NOT_STICKY;
+    public boolean onStopJob(JobParameters params) {
+        // The next period will run it again
+        QuoteMetrics.WAKEUP_STOPPED.increment();
+        return false;
     }
 
-    private void updateAllWidgets() {
-        Intent updateIntent = new Intent(this, BibleQuoteWidgetProvider.class);
-        updateIntent.setAction(BibleQuoteWidgetProvider.ACTION_UPDATE_QUOTE);
-        sendBroadcast(updateIntent);
-    }
-    
-    private void scheduleNextUpdate() {
-        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-        Intent intent = new Intent(this, QuoteUpdateService.class);
-        PendingIntent pendingIntent = PendingIntent.getService(
-                this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-        
-        // Add some randomization (between 4-8 hours)
-        Random random = new Random();
-        int hoursToAdd = random.nextInt(5) + 4; // 4 to 8 hours
-        
-        Calendar calendar = Calendar.getInstance();
-        calendar.add(Calendar.HOUR_OF_DAY, hoursToAdd);
-        
-        // Schedule the next update
-        if (alarmManager != null) {
-            alarmManager.set(
-                    AlarmManager.RTC_WAKEUP,
-                    calendar.getTimeInMillis(),
-                    pendingIntent
-            );
-            Log.d(TAG, "Next update scheduled in " + hoursToAdd + " hours");
-        }
+    /**
+     * Pipeline metrics for
+     * {@code adb shell dumpsys activity service com.example.biblequotewidget/.QuoteUpdateService}
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        QuoteMetrics.dump(writer);
+        writer.println("verse cache: " + VerseCache.getInstance(this).getStats());
+        writer.flush();
     }
 
     public static void scheduleUpdates(Context context) {
-        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-        Intent intent = new Intent(context, QuoteUpdateService.class);
-        PendingIntent pendingIntent = PendingIntent.getService(
-                context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-
-        // Start immediately for first update
-        Calendar calendar = Calendar.getInstance();
-        calendar.add(Calendar.SECOND, 10); // Start after 10 seconds
-
-        // Schedule the alarm
-        if (alarmManager != null) {
-            alarmManager.set(
-                    AlarmManager.RTC_WAKEUP,
-                    calendar.getTimeInMillis(),
-                    pendingIntent
-            );
-            Log.d(TAG, "Updates scheduled to start immediately");
+        cancelLegacyAlarm(context);
+        QuoteRefillService.scheduleDaily(context);
+
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+
+        // Rescheduling would restart the period, so keep an existing job
+        for (JobInfo job : jobScheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID_REFRESH) {
+                return;
+            }
+        }
+
+        JobInfo.Builder builder = new JobInfo.Builder(JOB_ID_REFRESH,
+                new ComponentName(context, QuoteUpdateService.class))
+                .setRequiresDeviceIdle(true)
+                .setPersisted(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            builder.setPeriodic(REFRESH_INTERVAL, REFRESH_FLEX);
+        } else {
+            builder.setPeriodic(REFRESH_INTERVAL);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder.setRequiresBatteryNotLow(true);
+        }
+
+        if (jobScheduler.schedule(builder.build()) == JobScheduler.RESULT_SUCCESS) {
+            Log.d(TAG, "Refresh job scheduled");
+        } else {
+            Log.e(TAG, "Could not schedule refresh job");
         }
     }
 
     public static void cancelUpdates(Context context) {
+        cancelLegacyAlarm(context);
+        QuoteRefillService.cancel(context);
+
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler != null) {
+            jobScheduler.cancel(JOB_ID_REFRESH);
+            Log.d(TAG, "Updates canceled");
+        }
+    }
+
+    /**
+     * Versions before the job scheduled themselves with an RTC_WAKEUP alarm
+     * that started this service; drop any that is still pending
+     */
+    private static void cancelLegacyAlarm(Context context) {
         AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
         Intent intent = new Intent(context, QuoteUpdateService.class);
         PendingIntent pendingIntent = PendingIntent.getService(
-                context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-
-        if (alarmManager != null) {
+                context, 0, intent, PendingIntent.FLAG_NO_CREATE | PendingIntent.FLAG_IMMUTABLE);
+        if (alarmManager != null && pendingIntent != null) {
             alarmManager.cancel(pendingIntent);
-            Log.d(TAG, "Updates canceled");
+            pendingIntent.cancel();
         }
     }
 }
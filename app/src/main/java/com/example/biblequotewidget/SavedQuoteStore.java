@@ -0,0 +1,213 @@
+package com.example.biblequotewidget;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Append-only log of saved quotes.
+ *
+ * Every save appends an ADD record with a stable id and every delete appends
+ * a tombstone, so both cost one small write however many quotes are saved.
+ * Each record carries a CRC; a torn record at the tail (from a crash mid
+ * write) is cut off when the log is replayed. Once tombstones and dead
+ * records outnumber live ones, the log is rewritten in the background with
+ * only the live quotes. The file format is {@link SavedQuoteLog}.
+ *
+ * Quotes saved by older versions under saved_quote_N preference keys are
+ * imported once, keeping N as their id.
+ */
+public class SavedQuoteStore {
+    private static final String TAG = "SavedQuoteStore";
+    private static final String PREFS_NAME = "com.example.biblequotewidget.WidgetPrefs";
+    private static final String LOG_FILE = "saved_quotes.log";
+    private static final int MIN_DEAD_RECORDS_TO_COMPACT = 64;
+
+    private static SavedQuoteStore instance;
+
+    private final SavedQuoteLog log;
+    // Ids only ever grow, so id order is the order the quotes were saved in
+    private final NavigableMap<Integer, SavedQuotesActivity.SavedQuote> live = new TreeMap<>();
+    private int nextId;
+    private int deadRecords;
+    private boolean compacting;
+
+    private SavedQuoteStore(File file) {
+        this.log = new SavedQuoteLog(file);
+    }
+
+    public static synchronized SavedQuoteStore getInstance(Context context) {
+        if (instance == null) {
+            Context appContext = context.getApplicationContext();
+            SavedQuoteStore store = new SavedQuoteStore(new File(appContext.getFilesDir(), LOG_FILE));
+            if (store.log.exists()) {
+                store.replay();
+            } else {
+                store.importLegacyPreferences(appContext);
+            }
+            instance = store;
+        }
+        return instance;
+    }
+
+    /**
+     * Save a quote
+     * @return The new quote's id, or -1 if it could not be written
+     */
+    public synchronized int add(String quote, String reference, String theme) {
+        int id = nextId;
+        try {
+            log.appendAdd(id, quote, reference, theme);
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving quote", e);
+            return -1;
+        }
+        nextId++;
+        live.put(id, new SavedQuotesActivity.SavedQuote(quote, reference, theme, id));
+        return id;
+    }
+
+    /**
+     * Delete a quote by id
+     * @return true if the quote existed and the tombstone was written
+     */
+    public synchronized boolean delete(int id) {
+        if (!live.containsKey(id)) {
+            return false;
+        }
+        try {
+            log.appendDelete(id);
+        } catch (IOException e) {
+            Log.e(TAG, "Error deleting quote", e);
+            return false;
+        }
+        live.remove(id);
+        // The ADD record is now dead, and so is the tombstone itself
+        deadRecords += 2;
+        maybeCompact();
+        return true;
+    }
+
+    public synchronized SavedQuotesActivity.SavedQuote get(int id) {
+        return live.get(id);
+    }
+
+    /**
+     * @return The live quotes in the order they were saved
+     */
+    public synchronized List<SavedQuotesActivity.SavedQuote> getAll() {
+        return new ArrayList<>(live.values());
+    }
+
+    /**
+     * @param afterId The id of the last quote of the previous page; -1 for the first page
+     * @param limit The most quotes to return
+     * @return The live quotes saved after afterId, in the order they were saved
+     */
+    public synchronized List<SavedQuotesActivity.SavedQuote> getPage(int afterId, int limit) {
+        List<SavedQuotesActivity.SavedQuote> page = new ArrayList<>(Math.min(limit, live.size()));
+        for (SavedQuotesActivity.SavedQuote quote : live.tailMap(afterId, false).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(quote);
+        }
+        return page;
+    }
+
+    public synchronized int size() {
+        return live.size();
+    }
+
+    private void replay() {
+        try {
+            long damaged = log.replay(new SavedQuoteLog.Visitor() {
+                @Override
+                public void onAdd(int id, String quote, String reference, String theme) {
+                    live.put(id, new SavedQuotesActivity.SavedQuote(quote, reference, theme, id));
+                    nextId = Math.max(nextId, id + 1);
+                }
+
+                @Override
+                public void onDelete(int id) {
+                    live.remove(id);
+                    deadRecords += 2;
+                    nextId = Math.max(nextId, id + 1);
+                }
+            });
+            if (damaged > 0) {
+                Log.w(TAG, "Dropped " + damaged + " bytes of torn or corrupt records from the log");
+                // Rewrite without the damaged records, so they are not skipped on every replay
+                writeCompacted();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading saved quotes", e);
+        }
+    }
+
+    private void importLegacyPreferences(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        int savedCount = prefs.getInt("saved_quotes_count", 0);
+        for (int i = 0; i < savedCount; i++) {
+            String quote = prefs.getString("saved_quote_" + i, "");
+            String reference = prefs.getString("saved_reference_" + i, "");
+            String theme = prefs.getString("saved_theme_" + i, "");
+            if (!quote.isEmpty() && !reference.isEmpty()) {
+                live.put(i, new SavedQuotesActivity.SavedQuote(quote, reference, theme, i));
+            }
+        }
+        nextId = savedCount;
+        try {
+            writeCompacted();
+        } catch (IOException e) {
+            Log.e(TAG, "Error importing saved quotes", e);
+            return;
+        }
+
+        SharedPreferences.Editor editor = prefs.edit();
+        for (int i = 0; i < savedCount; i++) {
+            editor.remove("saved_quote_" + i);
+            editor.remove("saved_reference_" + i);
+            editor.remove("saved_theme_" + i);
+        }
+        editor.remove("saved_quotes_count");
+        editor.apply();
+    }
+
+    private void maybeCompact() {
+        if (compacting || deadRecords < MIN_DEAD_RECORDS_TO_COMPACT || deadRecords < live.size()) {
+            return;
+        }
+        compacting = true;
+        boolean queued = AppExecutors.execute(() -> {
+            synchronized (SavedQuoteStore.this) {
+                try {
+                    writeCompacted();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error compacting saved quotes", e);
+                } finally {
+                    compacting = false;
+                }
+            }
+        });
+        if (!queued) {
+            // Dropped with the pool full; the next save or delete tries again
+            compacting = false;
+        }
+    }
+
+    /**
+     * Rewrite the log with one ADD record per live quote. Ids are kept.
+     */
+    private void writeCompacted() throws IOException {
+        log.rewrite(live.values(), nextId);
+        deadRecords = 0;
+    }
+}
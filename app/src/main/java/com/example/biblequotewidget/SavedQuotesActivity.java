@@ -1,30 +1,60 @@
 package com.example.biblequotewidget;
 
 import android.app.Activity;
-import android.os.Bundle;
-import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
-import android.widget.ListView;
-import android.widget.TextView;
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.widget.Toast;
 import android.content.Intent;
-import android.widget.Button;
+import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
+import android.view.View;
 import android.view.ViewGroup;
+import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
+/**
+ * Lists the saved quotes, and searches them and the corpus.
+ *
+ * Quotes are read a page at a time on a background thread, starting with
+ * the replay of the saved quotes log, and the next page is read as the
+ * list nears its end. Each quote's text is measured off the main thread
+ * with PrecomputedText, so binding a row only places the layout. Changes
+ * go through DiffUtil on a background thread, so a delete or a new search
+ * animates just the rows that changed.
+ */
 public class SavedQuotesActivity extends Activity {
 
-    private static final String PREFS_NAME = "com.example.biblequotewidget.WidgetPrefs";
-    private ListView savedQuotesList;
+    private static final int SEARCH_LIMIT = 50;
+    private static final int PAGE_SIZE = 200;
+    // Read the next page once the last visible row is this close to the end
+    private static final int PAGE_PREFETCH_DISTANCE = 50;
+    private RecyclerView savedQuotesList;
     private TextView emptyView;
-    private List<SavedQuote> quotes;
+    private EditText searchInput;
+    // The saved quotes read so far, in the order they were saved
+    private final List<Row> quotes = new ArrayList<>();
+    private SavedQuotesAdapter adapter;
+    private PrecomputedTextCompat.Params textParams;
+    // Page reads, searches and deletes, in order; queued deletes still run after the activity is gone
+    private final Executor worker = AppExecutors.serial();
+    private volatile int searchGeneration;
+    private boolean searching;
+    private boolean loadingPage;
+    private boolean allLoaded;
+    private int lastLoadedId = -1;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -33,135 +63,278 @@ public class SavedQuotesActivity extends Activity {
 
         savedQuotesList = findViewById(R.id.saved_quotes_list);
         emptyView = findViewById(R.id.empty_view);
+        searchInput = findViewById(R.id.search_input);
+        
+        // Every row's quote text is measured with the parameters of the row layout
+        View prototype = getLayoutInflater().inflate(R.layout.saved_quote_item, savedQuotesList, false);
+        textParams = TextViewCompat.getTextMetricsParams((TextView) prototype.findViewById(R.id.saved_quote_text));
         
-        loadSavedQuotes();
+        adapter = new SavedQuotesAdapter();
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        savedQuotesList.setLayoutManager(layoutManager);
+        savedQuotesList.setHasFixedSize(true);
+        DividerItemDecoration divider = new DividerItemDecoration(this, DividerItemDecoration.VERTICAL);
+        divider.setDrawable(getDrawable(R.drawable.saved_quote_divider));
+        savedQuotesList.addItemDecoration(divider);
+        savedQuotesList.setAdapter(adapter);
+        savedQuotesList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - PAGE_PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+        loadNextPage();
+        // Load the search indexes while the list is read, so the first search need not wait
+        QuoteSearch.getInstance(this).open();
         
-        if (quotes.isEmpty()) {
-            savedQuotesList.setVisibility(View.GONE);
-            emptyView.setVisibility(View.VISIBLE);
-        } else {
-            savedQuotesList.setVisibility(View.VISIBLE);
-            emptyView.setVisibility(View.GONE);
+        searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
             
-            SavedQuotesAdapter adapter = new SavedQuotesAdapter(this, quotes);
-            savedQuotesList.setAdapter(adapter);
-        }
-    }
-    
-    private void loadSavedQuotes() {
-        quotes = new ArrayList<>();
-        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        int savedCount = prefs.getInt("saved_quotes_count", 0);
-        
-        for (int i = 0; i < savedCount; i++) {
-            String quote = prefs.getString("saved_quote_" + i, "");
-            String reference = prefs.getString("saved_reference_" + i, "");
-            String theme = prefs.getString("saved_theme_" + i, "");
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
             
-            if (!quote.isEmpty() && !reference.isEmpty()) {
-                quotes.add(new SavedQuote(quote, reference, theme, i));
+            @Override
+            public void afterTextChanged(Editable s) {
+                search(s.toString());
             }
+        });
+    }
+    
+    private void showQuotes(List<Row> list) {
+        // ListAdapter ignores a list it already has, so always hand it a copy
+        adapter.submitList(new ArrayList<>(list));
+        
+        boolean empty = list.isEmpty() && (searching || allLoaded);
+        emptyView.setText(R.string.no_saved_quotes);
+        savedQuotesList.setVisibility(empty ? View.GONE : View.VISIBLE);
+        emptyView.setVisibility(empty ? View.VISIBLE : View.GONE);
+    }
+    
+    /**
+     * Say the search is waiting for its indexes, rather than show no results
+     */
+    private void showSearchLoading() {
+        adapter.submitList(new ArrayList<Row>());
+        emptyView.setText(R.string.search_loading);
+        savedQuotesList.setVisibility(View.GONE);
+        emptyView.setVisibility(View.VISIBLE);
+    }
+    
+    private void loadNextPage() {
+        if (loadingPage || allLoaded || searching) {
+            return;
         }
+        loadingPage = true;
+        final int afterId = lastLoadedId;
+        worker.execute(() -> {
+            // The first page also replays the saved quotes log
+            List<SavedQuote> page = SavedQuoteStore.getInstance(this).getPage(afterId, PAGE_SIZE);
+            final List<Row> rows = precompute(page);
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                loadingPage = false;
+                allLoaded = page.size() < PAGE_SIZE;
+                if (!page.isEmpty()) {
+                    lastLoadedId = page.get(page.size() - 1).getId();
+                }
+                quotes.addAll(rows);
+                if (!searching) {
+                    showQuotes(quotes);
+                }
+            });
+        });
     }
     
-    private void deleteQuote(int position) {
-        if (position >= 0 && position < quotes.size()) {
-            SavedQuote quoteToDelete = quotes.get(position);
-            quotes.remove(position);
-            
-            // Update the adapter
-            ((SavedQuotesAdapter) savedQuotesList.getAdapter()).notifyDataSetChanged();
-            
-            // If no quotes left, show empty view
-            if (quotes.isEmpty()) {
-                savedQuotesList.setVisibility(View.GONE);
-                emptyView.setVisibility(View.VISIBLE);
+    private void search(String query) {
+        final int generation = ++searchGeneration;
+        if (query.trim().isEmpty()) {
+            searching = false;
+            showQuotes(quotes);
+            // Pages the scroll listener skipped while the search was shown
+            loadNextPage();
+            return;
+        }
+        searching = true;
+        
+        // Treat the word being typed as a prefix
+        final String indexQuery = Character.isWhitespace(query.charAt(query.length() - 1))
+                ? query : query + "*";
+        final QuoteSearch quoteSearch = QuoteSearch.getInstance(this);
+        if (!quoteSearch.isLoaded()) {
+            showSearchLoading();
+        }
+        // Searching before the indexes load would find nothing
+        quoteSearch.whenLoaded(() -> worker.execute(() -> {
+            if (generation != searchGeneration) {
+                // Already typed past
+                return;
             }
-            
-            // Update preferences
-            updateSavedQuotesPreferences();
-            
-            Toast.makeText(this, "Quote deleted", Toast.LENGTH_SHORT).show();
+            final List<SavedQuote> results = new ArrayList<>();
+            for (QuoteSearch.Result result : quoteSearch.search(indexQuery, SEARCH_LIMIT)) {
+                results.add(new SavedQuote(result.getText(), result.getReference(),
+                        result.getTheme(), result.getSavedId()));
+            }
+            final List<Row> rows = precompute(results);
+            runOnUiThread(() -> {
+                // Drop results for queries the user has already typed past
+                if (generation == searchGeneration && !isDestroyed()) {
+                    showQuotes(rows);
+                }
+            });
+        }));
+    }
+    
+    /**
+     * Measure the quote text of each row; call on the worker thread
+     */
+    private List<Row> precompute(List<SavedQuote> page) {
+        List<Row> rows = new ArrayList<>(page.size());
+        for (SavedQuote quote : page) {
+            rows.add(new Row(quote, PrecomputedTextCompat.create(quote.getQuote(), textParams)));
         }
+        return rows;
     }
     
-    private void shareQuote(int position) {
-        if (position >= 0 && position < quotes.size()) {
-            SavedQuote quoteToShare = quotes.get(position);
-            
-            Intent shareIntent = new Intent(Intent.ACTION_SEND);
-            shareIntent.setType("text/plain");
-            shareIntent.putExtra(Intent.EXTRA_TEXT, 
-                    quoteToShare.getQuote() + "\n\n" + quoteToShare.getReference() + 
-                    "\n\nShared from Bible Quote Widget");
-            startActivity(Intent.createChooser(shareIntent, "Share Quote"));
+    private void deleteQuote(Row row) {
+        final SavedQuote quoteToDelete = row.quote;
+        if (quoteToDelete.getId() < 0) {
+            // Corpus search hits are not saved quotes
+            return;
         }
+        for (int i = 0; i < quotes.size(); i++) {
+            if (quotes.get(i).quote.getId() == quoteToDelete.getId()) {
+                quotes.remove(i);
+                break;
+            }
+        }
+        List<Row> shown = new ArrayList<>(adapter.getCurrentList());
+        shown.remove(row);
+        showQuotes(shown);
+        
+        worker.execute(() -> {
+            // Append a tombstone to the saved quote log
+            SavedQuoteStore.getInstance(this).delete(quoteToDelete.getId());
+            QuoteSearch.getInstance(this).onQuoteDeleted(quoteToDelete.getId(),
+                    quoteToDelete.getQuote(), quoteToDelete.getReference());
+        });
+        
+        Toast.makeText(this, "Quote deleted", Toast.LENGTH_SHORT).show();
     }
     
-    private void updateSavedQuotesPreferences() {
-        SharedPreferences.Editor editor = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+    private void shareQuote(Row row) {
+        SavedQuote quoteToShare = row.quote;
         
-        // Clear all saved quotes
-        editor.remove("saved_quotes_count");
+        Intent shareIntent = new Intent(Intent.ACTION_SEND);
+        shareIntent.setType("text/plain");
+        shareIntent.putExtra(Intent.EXTRA_TEXT, 
+                quoteToShare.getQuote() + "\n\n" + quoteToShare.getReference() + 
+                "\n\nShared from Bible Quote Widget");
+        startActivity(Intent.createChooser(shareIntent, "Share Quote"));
+    }
+    
+    /**
+     * A quote with its text already measured for the row layout
+     */
+    private static class Row {
+        final SavedQuote quote;
+        final PrecomputedTextCompat text;
+        final String theme;
         
-        // Save the current list
-        for (int i = 0; i < quotes.size(); i++) {
-            SavedQuote quote = quotes.get(i);
-            editor.putString("saved_quote_" + i, quote.getQuote());
-            editor.putString("saved_reference_" + i, quote.getReference());
-            editor.putString("saved_theme_" + i, quote.getTheme());
+        Row(SavedQuote quote, PrecomputedTextCompat text) {
+            this.quote = quote;
+            this.text = text;
+            this.theme = quote.getTheme().toUpperCase();
         }
-        
-        editor.putInt("saved_quotes_count", quotes.size());
-        editor.apply();
     }
     
-    private class SavedQuotesAdapter extends ArrayAdapter<SavedQuote> {
+    private static final DiffUtil.ItemCallback<Row> ROW_DIFF = new DiffUtil.ItemCallback<Row>() {
+        @Override
+        public boolean areItemsTheSame(Row oldRow, Row newRow) {
+            if (oldRow.quote.getId() >= 0 || newRow.quote.getId() >= 0) {
+                return oldRow.quote.getId() == newRow.quote.getId();
+            }
+            // Corpus search hits have no id
+            return oldRow.quote.getReference().equals(newRow.quote.getReference());
+        }
+        
+        @Override
+        public boolean areContentsTheSame(Row oldRow, Row newRow) {
+            return oldRow.quote.getQuote().equals(newRow.quote.getQuote())
+                    && oldRow.quote.getReference().equals(newRow.quote.getReference())
+                    && oldRow.theme.equals(newRow.theme);
+        }
+    };
+    
+    private class SavedQuotesAdapter extends ListAdapter<Row, QuoteHolder> {
         
-        public SavedQuotesAdapter(Context context, List<SavedQuote> quotes) {
-            super(context, 0, quotes);
+        SavedQuotesAdapter() {
+            super(ROW_DIFF);
         }
         
         @Override
-        public View getView(int position, View convertView, ViewGroup parent) {
-            SavedQuote quote = getItem(position);
-            
-            if (convertView == null) {
-                convertView = LayoutInflater.from(getContext()).inflate(
-                        R.layout.saved_quote_item, parent, false);
-            }
-            
-            TextView quoteText = convertView.findViewById(R.id.saved_quote_text);
-            TextView referenceText = convertView.findViewById(R.id.saved_reference_text);
-            TextView themeText = convertView.findViewById(R.id.saved_theme_text);
-            ImageButton deleteButton = convertView.findViewById(R.id.delete_button);
-            ImageButton shareButton = convertView.findViewById(R.id.share_button);
-            
-            quoteText.setText(quote.getQuote());
-            referenceText.setText(quote.getReference());
-            themeText.setText(quote.getTheme().toUpperCase());
-            
-            final int quotePosition = position;
+        public QuoteHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return new QuoteHolder(LayoutInflater.from(parent.getContext()).inflate(
+                    R.layout.saved_quote_item, parent, false));
+        }
+        
+        @Override
+        public void onBindViewHolder(QuoteHolder holder, int position) {
+            holder.bind(getItem(position));
+        }
+    }
+    
+    private class QuoteHolder extends RecyclerView.ViewHolder {
+        private final TextView quoteText;
+        private final TextView referenceText;
+        private final TextView themeText;
+        private final ImageButton deleteButton;
+        
+        QuoteHolder(View itemView) {
+            super(itemView);
+            quoteText = itemView.findViewById(R.id.saved_quote_text);
+            referenceText = itemView.findViewById(R.id.saved_reference_text);
+            themeText = itemView.findViewById(R.id.saved_theme_text);
+            deleteButton = itemView.findViewById(R.id.delete_button);
+            ImageButton shareButton = itemView.findViewById(R.id.share_button);
             
-            deleteButton.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    deleteQuote(quotePosition);
+            deleteButton.setOnClickListener(v -> {
+                Row row = boundRow();
+                if (row != null) {
+                    deleteQuote(row);
                 }
             });
-            
-            shareButton.setOnClickListener(new View.OnClickListener() {
-                @Override
-                public void onClick(View v) {
-                    shareQuote(quotePosition);
+            shareButton.setOnClickListener(v -> {
+                Row row = boundRow();
+                if (row != null) {
+                    shareQuote(row);
                 }
             });
-            
-            return convertView;
+        }
+        
+        /**
+         * @return The row shown, or null while it is being removed
+         */
+        private Row boundRow() {
+            int position = getBindingAdapterPosition();
+            return position != RecyclerView.NO_POSITION ? adapter.getCurrentList().get(position) : null;
+        }
+        
+        void bind(Row row) {
+            TextViewCompat.setPrecomputedText(quoteText, row.text);
+            referenceText.setText(row.quote.getReference());
+            themeText.setText(row.theme);
+            deleteButton.setVisibility(row.quote.getId() >= 0 ? View.VISIBLE : View.GONE);
         }
     }
     
-    public static class SavedQuote {
+    public static class SavedQuote implements SavedQuoteLog.Entry {
         private final String quote;
         private final String reference;
         private final String theme;
@@ -174,18 +347,22 @@ public class SavedQuotesActivity extends Activity {
             this.id = id;
         }
         
+        @Override
         public String getQuote() {
             return quote;
         }
         
+        @Override
         public String getReference() {
             return reference;
         }
         
+        @Override
         public String getTheme() {
             return theme;
         }
         
+        @Override
         public int getId() {
             return id;
         }
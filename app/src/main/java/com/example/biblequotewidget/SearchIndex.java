@@ -0,0 +1,300 @@
+package com.example.biblequotewidget;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory inverted index with BM25 ranking, persisted to a single file.
+ *
+ * Each posting packs a document id and its term frequency into one int
+ * ({@code docId << 8 | min(tf, 255)}), so the full Bible fits in a few MB.
+ * Documents can be added and removed one at a time, which keeps the index
+ * for saved quotes current without rebuilding it.
+ *
+ * A query term ending in {@code *} matches every indexed term with that prefix.
+ */
+public class SearchIndex {
+
+    private static final int MAGIC = 0x42515349;
+    private static final int VERSION = 1;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int MAX_TF = 0xFF;
+    // Documents and queries are both split into runs of letters, digits and apostrophes
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}']+");
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private int[] docLengths = new int[16];
+    private int docCount;
+    private long totalLength;
+
+    /**
+     * A ranked search result
+     */
+    public static class Hit {
+        private final int docId;
+        private final float score;
+
+        Hit(int docId, float score) {
+            this.docId = docId;
+            this.score = score;
+        }
+
+        public int getDocId() {
+            return docId;
+        }
+
+        public float getScore() {
+            return score;
+        }
+    }
+
+    public synchronized int getDocCount() {
+        return docCount;
+    }
+
+    public synchronized boolean contains(int docId) {
+        return docId < docLengths.length && docLengths[docId] > 0;
+    }
+
+    /**
+     * Index a document. Re-adding an existing id replaces nothing; callers
+     * remove the old text first.
+     */
+    public synchronized void add(int docId, String text) {
+        Map<String, Integer> counts = countTerms(text);
+        if (counts.isEmpty() || contains(docId)) {
+            return;
+        }
+        int length = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            Postings postings = terms.get(entry.getKey());
+            if (postings == null) {
+                postings = new Postings();
+                terms.put(entry.getKey(), postings);
+            }
+            postings.add(docId, entry.getValue());
+            length += entry.getValue();
+        }
+        if (docId >= docLengths.length) {
+            docLengths = Arrays.copyOf(docLengths, Math.max(docId + 1, docLengths.length * 2));
+        }
+        docLengths[docId] = length;
+        docCount++;
+        totalLength += length;
+    }
+
+    /**
+     * Remove a document, given the same text it was indexed with
+     */
+    public synchronized void remove(int docId, String text) {
+        if (!contains(docId)) {
+            return;
+        }
+        for (String term : countTerms(text).keySet()) {
+            Postings postings = terms.get(term);
+            if (postings != null) {
+                postings.remove(docId);
+                if (postings.size == 0) {
+                    terms.remove(term);
+                }
+            }
+        }
+        totalLength -= docLengths[docId];
+        docLengths[docId] = 0;
+        docCount--;
+    }
+
+    /**
+     * Run a BM25-ranked query
+     * @param query Free text; terms ending in '*' are prefix matches
+     * @param limit Maximum number of hits to return
+     * @return Hits ordered by descending score
+     */
+    public synchronized List<Hit> search(String query, int limit) {
+        if (docCount == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        float averageLength = (float) totalLength / docCount;
+        float[] scores = new float[docLengths.length];
+        int[] touched = new int[16];
+        int touchedCount = 0;
+
+        String lower = query.toLowerCase();
+        Matcher tokens = TOKEN.matcher(lower);
+        while (tokens.find()) {
+            boolean prefix = tokens.end() < lower.length() && lower.charAt(tokens.end()) == '*';
+            String term = normalize(tokens.group());
+            if (term.isEmpty()) {
+                continue;
+            }
+            Iterable<Map.Entry<String, Postings>> matches;
+            if (prefix) {
+                SortedMap<String, Postings> range = terms.subMap(term, term + Character.MAX_VALUE);
+                matches = range.entrySet();
+            } else {
+                Postings postings = terms.get(term);
+                if (postings == null) {
+                    continue;
+                }
+                matches = Collections.singletonMap(term, postings).entrySet();
+            }
+            for (Map.Entry<String, Postings> match : matches) {
+                Postings postings = match.getValue();
+                double idf = Math.log(1 + (docCount - postings.size + 0.5) / (postings.size + 0.5));
+                for (int i = 0; i < postings.size; i++) {
+                    int docId = postings.entries[i] >>> 8;
+                    int tf = postings.entries[i] & MAX_TF;
+                    float norm = K1 * (1 - B + B * docLengths[docId] / averageLength);
+                    if (scores[docId] == 0) {
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, touchedCount * 2);
+                        }
+                        touched[touchedCount++] = docId;
+                    }
+                    scores[docId] += (float) (idf * tf * (K1 + 1) / (tf + norm));
+                }
+            }
+        }
+
+        // Keep the best hits in a min-heap of the requested size
+        PriorityQueue<Hit> best = new PriorityQueue<>(limit, (a, b) -> Float.compare(a.score, b.score));
+        for (int i = 0; i < touchedCount; i++) {
+            int docId = touched[i];
+            if (best.size() < limit) {
+                best.add(new Hit(docId, scores[docId]));
+            } else if (scores[docId] > best.peek().score) {
+                best.poll();
+                best.add(new Hit(docId, scores[docId]));
+            }
+        }
+        List<Hit> hits = new ArrayList<>(best);
+        Collections.sort(hits, (a, b) -> Float.compare(b.score, a.score));
+        return hits;
+    }
+
+    /**
+     * Write the index to a temporary file and rename it into place
+     */
+    public synchronized void writeTo(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(docLengths.length);
+            for (int length : docLengths) {
+                out.writeInt(length);
+            }
+            out.writeInt(terms.size());
+            for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                Postings postings = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(postings.size);
+                for (int i = 0; i < postings.size; i++) {
+                    out.writeInt(postings.entries[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not move search index into place: " + file);
+        }
+    }
+
+    /**
+     * Load an index previously written with {@link #writeTo(File)}
+     */
+    public static SearchIndex readFrom(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a search index: " + file);
+            }
+            SearchIndex index = new SearchIndex();
+            index.docLengths = new int[in.readInt()];
+            for (int i = 0; i < index.docLengths.length; i++) {
+                int length = in.readInt();
+                index.docLengths[i] = length;
+                if (length > 0) {
+                    index.docCount++;
+                    index.totalLength += length;
+                }
+            }
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = in.readUTF();
+                Postings postings = new Postings();
+                postings.size = in.readInt();
+                postings.entries = new int[postings.size];
+                for (int j = 0; j < postings.size; j++) {
+                    postings.entries[j] = in.readInt();
+                }
+                index.terms.put(term, postings);
+            }
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Map<String, Integer> countTerms(String text) {
+        Map<String, Integer> counts = new HashMap<>();
+        Matcher tokens = TOKEN.matcher(text.toLowerCase());
+        while (tokens.find()) {
+            String term = normalize(tokens.group());
+            if (!term.isEmpty()) {
+                Integer count = counts.get(term);
+                counts.put(term, count == null ? 1 : count + 1);
+            }
+        }
+        return counts;
+    }
+
+    private static String normalize(String token) {
+        // Fold "LORD's" and "LORD" together, drop stray quote marks
+        String term = token.replace("'s", "").replace("'", "");
+        return term.replaceAll("[^\\p{L}\\p{N}]", "");
+    }
+
+    private static class Postings {
+        int[] entries = new int[4];
+        int size;
+
+        void add(int docId, int tf) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = docId << 8 | Math.min(tf, MAX_TF);
+        }
+
+        void remove(int docId) {
+            for (int i = 0; i < size; i++) {
+                if (entries[i] >>> 8 == docId) {
+                    System.arraycopy(entries, i + 1, entries, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.example.biblequotewidget;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two-tier cache of verses fetched from bible-api.com, keyed by
+ * (translation, reference).
+ *
+ * The first tier is an in-memory LRU bounded by text size. The second is a
+ * directory of small files under the app's cache dir, one per chapter so a
+ * passage is written with one file replace, bounded by total bytes, with a
+ * time-to-live per entry. Chapter files are evicted least recently used
+ * first, using the file modification time as the access time.
+ */
+public class VerseCache {
+    private static final String TAG = "VerseCache";
+    private static final String CACHE_DIR = "verses";
+    private static final int MEMORY_CACHE_BYTES = 256 * 1024;
+    private static final long DISK_CACHE_BYTES = 2 * 1024 * 1024;
+    private static final long TTL_MS = TimeUnit.DAYS.toMillis(30);
+    private static final String CHAPTER_SUFFIX = ".c";
+
+    private static VerseCache instance;
+
+    private final File directory;
+    private final LruCache<String, BibleQuoteManager.BibleQuote> memory;
+    private final Object diskLock = new Object();
+    private long diskBytes = -1;
+
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+    private long expirations;
+    private long diskEvictions;
+
+    private VerseCache(Context context) {
+        this.directory = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+        this.memory = new LruCache<String, BibleQuoteManager.BibleQuote>(MEMORY_CACHE_BYTES) {
+            @Override
+            protected int sizeOf(String key, BibleQuoteManager.BibleQuote quote) {
+                // UTF-16 text plus a rough allowance for the object headers
+                return 2 * (key.length() + quote.getText().length() + quote.getReference().length()) + 64;
+            }
+        };
+    }
+
+    public static synchronized VerseCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new VerseCache(context);
+        }
+        return instance;
+    }
+
+    public static String key(String translation, String reference) {
+        return translation.toLowerCase() + "|" + reference.trim().toLowerCase();
+    }
+
+    /**
+     * Look up a verse, checking memory first and then disk. Disk reads make
+     * this unsuitable for the main thread.
+     * @return The cached verse, or null if absent or expired
+     */
+    public BibleQuoteManager.BibleQuote get(String translation, String reference) {
+        long start = System.nanoTime();
+        String key = key(translation, reference);
+        BibleQuoteManager.BibleQuote quote = memory.get(key);
+        if (quote != null) {
+            synchronized (this) {
+                memoryHits++;
+            }
+            QuoteMetrics.CACHE_HITS.increment();
+            QuoteMetrics.CACHE.recordSince(start);
+            return quote;
+        }
+
+        quote = readFromDisk(translation, reference);
+        synchronized (this) {
+            if (quote != null) {
+                diskHits++;
+            } else {
+                misses++;
+            }
+        }
+        if (quote != null) {
+            memory.put(key, quote);
+            QuoteMetrics.CACHE_HITS.increment();
+        } else {
+            QuoteMetrics.CACHE_MISSES.increment();
+        }
+        QuoteMetrics.CACHE.recordSince(start);
+        return quote;
+    }
+
+    /**
+     * Store a verse in both tiers
+     * @param translation The translation id the verse was requested with, e.g. "kjv"
+     */
+    public void put(String translation, BibleQuoteManager.BibleQuote quote) {
+        putAll(translation, Collections.singletonList(quote));
+    }
+
+    /**
+     * Store several verses in both tiers, rewriting each chapter file they
+     * touch once rather than once per verse
+     * @param translation The translation id the verses were requested with, e.g. "kjv"
+     */
+    public void putAll(String translation, List<BibleQuoteManager.BibleQuote> quotes) {
+        Map<String, List<BibleQuoteManager.BibleQuote>> byChapter = new LinkedHashMap<>();
+        for (BibleQuoteManager.BibleQuote quote : quotes) {
+            memory.put(key(translation, quote.getReference()), quote);
+            String chapterKey = key(translation, chapterOf(quote.getReference()));
+            List<BibleQuoteManager.BibleQuote> chapter = byChapter.get(chapterKey);
+            if (chapter == null) {
+                chapter = new ArrayList<>();
+                byChapter.put(chapterKey, chapter);
+            }
+            chapter.add(quote);
+        }
+        for (Map.Entry<String, List<BibleQuoteManager.BibleQuote>> chapter : byChapter.entrySet()) {
+            writeToDisk(translation, chapter.getKey(), chapter.getValue());
+        }
+    }
+
+    /**
+     * @return A one-line summary of hit, miss and eviction counts
+     */
+    public synchronized String getStats() {
+        return "memory hits=" + memoryHits + " (" + memory.size() + "/" + memory.maxSize() + " bytes, "
+                + memory.evictionCount() + " evicted), disk hits=" + diskHits
+                + " (" + Math.max(diskBytes, 0) + "/" + DISK_CACHE_BYTES + " bytes, "
+                + diskEvictions + " evicted, " + expirations + " expired), misses=" + misses;
+    }
+
+    /**
+     * @return "John 3" for "John 3:16"; a reference without a verse is its own chapter
+     */
+    private static String chapterOf(String reference) {
+        int colon = reference.lastIndexOf(':');
+        return colon < 0 ? reference : reference.substring(0, colon);
+    }
+
+    private File fileFor(String chapterKey) {
+        return new File(directory, Integer.toHexString(chapterKey.hashCode()) + CHAPTER_SUFFIX);
+    }
+
+    private BibleQuoteManager.BibleQuote readFromDisk(String translation, String reference) {
+        String key = key(translation, reference);
+        synchronized (diskLock) {
+            File file = fileFor(key(translation, chapterOf(reference)));
+            if (!file.exists()) {
+                return null;
+            }
+            Map<String, Entry> entries = readChapter(file);
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                // Not cached, or a hash collision with a different chapter
+                return null;
+            }
+            if (System.currentTimeMillis() - entry.writtenAt > TTL_MS) {
+                synchronized (this) {
+                    expirations++;
+                }
+                return null;
+            }
+            // Record the access for LRU eviction
+            file.setLastModified(System.currentTimeMillis());
+            return entry.quote;
+        }
+    }
+
+    /**
+     * @return The entries of a chapter file by key; empty, and the file
+     * deleted, if it cannot be read
+     */
+    private Map<String, Entry> readChapter(File file) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return entries;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    long writtenAt = in.readLong();
+                    String key = in.readUTF();
+                    BibleQuoteManager.BibleQuote quote = new BibleQuoteManager.BibleQuote(
+                            in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+                    entries.put(key, new Entry(writtenAt, quote));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Dropping unreadable cache file " + file.getName(), e);
+            deleteFile(file);
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private void writeToDisk(String translation, String chapterKey, List<BibleQuoteManager.BibleQuote> quotes) {
+        synchronized (diskLock) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+            ensureDiskSizeKnown();
+            File file = fileFor(chapterKey);
+            long now = System.currentTimeMillis();
+            // Merge with the verses already cached for the chapter, dropping expired ones
+            Map<String, Entry> entries = readChapter(file);
+            for (BibleQuoteManager.BibleQuote quote : quotes) {
+                entries.put(key(translation, quote.getReference()), new Entry(now, quote));
+            }
+            long previous = file.length();
+            File temp = new File(file.getPath() + ".tmp");
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+                try {
+                    List<Map.Entry<String, Entry>> live = new ArrayList<>();
+                    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                        if (now - entry.getValue().writtenAt <= TTL_MS) {
+                            live.add(entry);
+                        }
+                    }
+                    out.writeInt(live.size());
+                    for (Map.Entry<String, Entry> entry : live) {
+                        BibleQuoteManager.BibleQuote quote = entry.getValue().quote;
+                        out.writeLong(entry.getValue().writtenAt);
+                        out.writeUTF(entry.getKey());
+                        out.writeUTF(quote.getText());
+                        out.writeUTF(quote.getReference());
+                        out.writeUTF(quote.getTranslation());
+                        out.writeUTF(quote.getTheme());
+                    }
+                } finally {
+                    out.close();
+                }
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                    return;
+                }
+                diskBytes += file.length() - previous;
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing cache file", e);
+                temp.delete();
+                return;
+            }
+            if (diskBytes > DISK_CACHE_BYTES) {
+                trimDisk(DISK_CACHE_BYTES * 3 / 4);
+            }
+        }
+    }
+
+    private void ensureDiskSizeKnown() {
+        if (diskBytes >= 0) {
+            return;
+        }
+        diskBytes = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().endsWith(CHAPTER_SUFFIX)) {
+                    // A per-verse entry from before chapter files, or a stray temp file
+                    file.delete();
+                    continue;
+                }
+                diskBytes += file.length();
+            }
+        }
+    }
+
+    private void trimDisk(long targetBytes) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference == 0 ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (diskBytes <= targetBytes) {
+                break;
+            }
+            deleteFile(file);
+            synchronized (this) {
+                diskEvictions++;
+            }
+        }
+    }
+
+    private void deleteFile(File file) {
+        long length = file.length();
+        if (file.delete() && diskBytes >= 0) {
+            diskBytes -= length;
+        }
+    }
+
+    private static class Entry {
+        final long writtenAt;
+        final BibleQuoteManager.BibleQuote quote;
+
+        Entry(long writtenAt, BibleQuoteManager.BibleQuote quote) {
+            this.writtenAt = writtenAt;
+            this.quote = quote;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.biblequotewidget;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gives widgets a new quote in bulk.
+ *
+ * Widgets are grouped by theme, translation and the longest quote they
+ * fit, and one quote is drawn per group, so a refresh costs one draw per
+ * group however many widgets are placed. All state records are updated
+ * first and the widgets are then pushed in a single pass. With config_quote_per_widget set, each widget draws its own quote
+ * instead. With config_verse_of_the_day set, the quote is the theme's verse
+ * of the day, so it is the same on every refresh until the date changes.
+ */
+final class WidgetRefreshEngine {
+    private static final String TAG = "WidgetRefreshEngine";
+
+    private WidgetRefreshEngine() {
+    }
+
+    /**
+     * Refresh every placed instance of the widget
+     */
+    static void refreshAll(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, BibleQuoteWidgetProvider.class));
+        refresh(context, appWidgetManager, appWidgetIds);
+    }
+
+    /**
+     * Give each of the given widgets a new quote and push them
+     */
+    static void refresh(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        if (appWidgetIds == null || appWidgetIds.length == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        boolean quotePerWidget = context.getResources().getBoolean(R.bool.config_quote_per_widget);
+        WidgetStateStore stateStore = WidgetStateStore.getInstance(context);
+
+        // Group the widgets by theme, translation and size
+        Map<String, List<WidgetStateStore.WidgetState>> byTheme = new HashMap<>();
+        Set<String> themes = new HashSet<>();
+        for (int appWidgetId : appWidgetIds) {
+            WidgetStateStore.WidgetState state = stateStore.get(appWidgetId);
+            String groupKey = state.getTheme() + "|" + state.getTranslation()
+                    + "|" + VerseStore.maxLengthClass(state.getMaxQuoteLength());
+            List<WidgetStateStore.WidgetState> group = byTheme.get(groupKey);
+            if (group == null) {
+                group = new ArrayList<>();
+                byTheme.put(groupKey, group);
+            }
+            group.add(state);
+            themes.add(state.getTheme());
+        }
+
+        // Draw one quote per theme (or per widget) and record it
+        for (List<WidgetStateStore.WidgetState> group : byTheme.values()) {
+            LocalQuoteDatabase.BibleQuote quote = null;
+            for (WidgetStateStore.WidgetState state : group) {
+                if (quote == null || quotePerWidget) {
+                    quote = nextQuote(context, state);
+                }
+                // The verse of the day is often the quote already shown; nothing to write then
+                if (state.setQuote(quote.getText(), quote.getReference(), quote.getTheme())) {
+                    stateStore.put(state);
+                }
+            }
+        }
+        Log.d(TAG, "Refreshed " + appWidgetIds.length + " widgets across " + byTheme.size() + " groups");
+
+        // One push pass for everything
+        BibleQuoteWidgetProvider.updateAppWidgets(context, appWidgetManager, appWidgetIds, false);
+
+        refillPrefetchQueues(context, themes);
+        QuoteMetrics.REFRESH.recordSince(start);
+    }
+
+    /**
+     * If any of the given themes' prefetch queues is running low, ask for
+     * them to be filled the next time the device charges on an unmetered
+     * network. The verse of the day never draws from them, so nothing is
+     * fetched then.
+     */
+    static void refillPrefetchQueues(Context context, Collection<String> themes) {
+        if (context.getResources().getBoolean(R.bool.config_verse_of_the_day)) {
+            return;
+        }
+        QuotePrefetchQueue prefetchQueue = QuotePrefetchQueue.getInstance(context);
+        for (String theme : themes) {
+            if (prefetchQueue.needsRefill(theme)) {
+                QuoteRefillService.requestRefill(context);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Pick the next quote for a widget: the verse of the day if
+     * config_verse_of_the_day is set, salted by widget id when each widget
+     * gets its own quote; otherwise a verse for its theme that the widget
+     * has not shown yet. Either way only verses short enough for the
+     * widget's size are drawn.
+     */
+    static LocalQuoteDatabase.BibleQuote nextQuote(Context context, WidgetStateStore.WidgetState state) {
+        int maxLengthClass = VerseStore.maxLengthClass(state.getMaxQuoteLength());
+        if (context.getResources().getBoolean(R.bool.config_verse_of_the_day)) {
+            long salt = context.getResources().getBoolean(R.bool.config_quote_per_widget)
+                    ? state.getAppWidgetId() : 0;
+            LocalQuoteDatabase.open(context);
+            return LocalQuoteDatabase.getQuoteOfTheDay(state.getTheme(), LocalQuoteDatabase.today(), salt,
+                    state.getTranslation(), maxLengthClass);
+        }
+
+        // Take a pre-fetched verse that fits if one is queued, otherwise draw one the widget has
+        // not shown. The queue holds default translation verses only; longer ones stay queued.
+        LocalQuoteDatabase.BibleQuote quote = null;
+        if (LocalQuoteDatabase.DEFAULT_TRANSLATION.equalsIgnoreCase(state.getTranslation())) {
+            quote = QuotePrefetchQueue.getInstance(context).poll(state.getTheme(), state.getMaxQuoteLength());
+        }
+        if (quote != null) {
+            QuoteMetrics.REFRESH_PREFETCHED.increment();
+        } else {
+            QuoteMetrics.REFRESH_LOCAL.increment();
+            LocalQuoteDatabase.open(context);
+            quote = QuoteSampler.getInstance(context).next(state.getAppWidgetId(), state.getTheme(),
+                    state.getTranslation(), maxLengthClass);
+        }
+        return quote;
+    }
+}
@@ -0,0 +1,432 @@
+package com.example.biblequotewidget;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Per-widget settings and current quote, kept as one small binary record per
+ * widget id instead of string keys in the shared preferences file.
+ *
+ * Reads are served from an in-memory snapshot; writes update the snapshot
+ * immediately and are flushed to disk on a background thread, with several
+ * updates made before the flush runs folded into one write per widget.
+ * Broadcast receivers that change state should keep themselves alive with
+ * goAsync() until {@link #flush()} has run, or a kill can lose the update.
+ * Widgets configured by older versions are migrated from preferences the
+ * first time they are read, and their preference keys removed once the
+ * migrated record is on disk.
+ */
+public class WidgetStateStore {
+    private static final String TAG = "WidgetStateStore";
+    private static final String PREFS_NAME = "com.example.biblequotewidget.WidgetPrefs";
+    private static final String STATE_DIR = "widgets";
+    private static final int RECORD_VERSION = 3;
+
+    private static WidgetStateStore instance;
+
+    private final Context context;
+    private final File directory;
+    private final SparseArray<WidgetState> snapshot = new SparseArray<>();
+    private final SparseArray<WidgetState> dirty = new SparseArray<>();
+    // Widgets deleted in this process. Ids are never reused, so reads and writes that arrive late are dropped
+    private final SparseBooleanArray deleted = new SparseBooleanArray();
+    // Widgets migrated from preferences whose old keys are still there
+    private final SparseBooleanArray migrated = new SparseBooleanArray();
+    // Held while writing so that flushes never reorder a widget's records
+    private final Object flushLock = new Object();
+    private boolean flushScheduled;
+
+    private WidgetStateStore(Context context) {
+        this.context = context.getApplicationContext();
+        this.directory = new File(this.context.getFilesDir(), STATE_DIR);
+    }
+
+    public static synchronized WidgetStateStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new WidgetStateStore(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Settings and current quote for one widget
+     */
+    public static class WidgetState {
+        private final int appWidgetId;
+        private String theme = "wisdom";
+        private String appearance = "light";
+        private String translation = LocalQuoteDatabase.DEFAULT_TRANSLATION;
+        private boolean notifications = true;
+        // Most characters the quote text area shows at its current size; 0 if unknown
+        private int maxQuoteLength;
+        private String quote = "";
+        private String reference = "";
+        private String quoteTheme = "";
+        private boolean saved;
+        private int savedId = -1;
+
+        public WidgetState(int appWidgetId) {
+            this.appWidgetId = appWidgetId;
+        }
+
+        WidgetState copy() {
+            WidgetState copy = new WidgetState(appWidgetId);
+            copy.theme = theme;
+            copy.appearance = appearance;
+            copy.translation = translation;
+            copy.notifications = notifications;
+            copy.maxQuoteLength = maxQuoteLength;
+            copy.quote = quote;
+            copy.reference = reference;
+            copy.quoteTheme = quoteTheme;
+            copy.saved = saved;
+            copy.savedId = savedId;
+            return copy;
+        }
+
+        public int getAppWidgetId() {
+            return appWidgetId;
+        }
+
+        public String getTheme() {
+            return theme;
+        }
+
+        public void setTheme(String theme) {
+            this.theme = theme;
+        }
+
+        public String getAppearance() {
+            return appearance;
+        }
+
+        public void setAppearance(String appearance) {
+            this.appearance = appearance;
+        }
+
+        public String getTranslation() {
+            return translation;
+        }
+
+        public void setTranslation(String translation) {
+            this.translation = translation;
+        }
+
+        public boolean isNotifications() {
+            return notifications;
+        }
+
+        public void setNotifications(boolean notifications) {
+            this.notifications = notifications;
+        }
+
+        public int getMaxQuoteLength() {
+            return maxQuoteLength;
+        }
+
+        public void setMaxQuoteLength(int maxQuoteLength) {
+            this.maxQuoteLength = maxQuoteLength;
+        }
+
+        public String getQuote() {
+            return quote;
+        }
+
+        public String getReference() {
+            return reference;
+        }
+
+        public String getQuoteTheme() {
+            return quoteTheme;
+        }
+
+        /**
+         * Set the quote currently shown. The saved flag is cleared unless it
+         * is the quote already shown.
+         * @return true if the quote changed
+         */
+        public boolean setQuote(String quote, String reference, String quoteTheme) {
+            if (quote.equals(this.quote) && reference.equals(this.reference)) {
+                this.quoteTheme = quoteTheme;
+                return false;
+            }
+            this.quote = quote;
+            this.reference = reference;
+            this.quoteTheme = quoteTheme;
+            this.saved = false;
+            this.savedId = -1;
+            return true;
+        }
+
+        /**
+         * Replace the text of the quote shown with another translation of
+         * the same verse. The saved flag is kept: it is still the same verse.
+         */
+        public void setQuoteText(String quote) {
+            this.quote = quote;
+        }
+
+        public boolean hasQuote() {
+            return !quote.isEmpty() && !reference.isEmpty();
+        }
+
+        public boolean isSaved() {
+            return saved;
+        }
+
+        public int getSavedId() {
+            return savedId;
+        }
+
+        public void setSaved(boolean saved, int savedId) {
+            this.saved = saved;
+            this.savedId = savedId;
+        }
+    }
+
+    /**
+     * Get a copy of a widget's state; defaults if the widget has none yet
+     */
+    public synchronized WidgetState get(int appWidgetId) {
+        WidgetState state = snapshot.get(appWidgetId);
+        if (state == null) {
+            if (deleted.get(appWidgetId)) {
+                // Kept out of the snapshot, so no flush writes the record again
+                return new WidgetState(appWidgetId);
+            }
+            state = load(appWidgetId);
+            snapshot.put(appWidgetId, state);
+        }
+        return state.copy();
+    }
+
+    /**
+     * Replace a widget's state. The record is written in the background.
+     */
+    public synchronized void put(WidgetState state) {
+        if (deleted.get(state.getAppWidgetId())) {
+            // A refresh that finished after its widget was removed
+            return;
+        }
+        WidgetState copy = state.copy();
+        snapshot.put(copy.getAppWidgetId(), copy);
+        dirty.put(copy.getAppWidgetId(), copy);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            // If the pool is full the records stay dirty; the next put or the job's flush() writes them
+            flushScheduled = AppExecutors.execute(this::flush);
+        }
+    }
+
+    /**
+     * @return true if some records have not been written yet
+     */
+    public synchronized boolean hasPendingWrites() {
+        return dirty.size() > 0;
+    }
+
+    public synchronized void delete(int appWidgetId) {
+        deleted.put(appWidgetId, true);
+        snapshot.remove(appWidgetId);
+        dirty.remove(appWidgetId);
+        if (migrated.get(appWidgetId)) {
+            migrated.delete(appWidgetId);
+            removePreferences(appWidgetId);
+        }
+        if (!fileFor(appWidgetId).delete()) {
+            Log.d(TAG, "No state file for widget " + appWidgetId);
+        }
+    }
+
+    /**
+     * Write every pending record now
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            writePending();
+        }
+    }
+
+    private void writePending() {
+        SparseArray<WidgetState> pending;
+        synchronized (this) {
+            flushScheduled = false;
+            if (dirty.size() == 0) {
+                return;
+            }
+            pending = new SparseArray<>(dirty.size());
+            for (int i = 0; i < dirty.size(); i++) {
+                pending.put(dirty.keyAt(i), dirty.valueAt(i));
+            }
+            dirty.clear();
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "Could not create widget state directory");
+            return;
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            WidgetState state = pending.valueAt(i);
+            if (write(state)) {
+                removeMigratedPreferences(state.getAppWidgetId());
+            }
+        }
+    }
+
+    private File fileFor(int appWidgetId) {
+        return new File(directory, appWidgetId + ".state");
+    }
+
+    /**
+     * @return true if the record is now on disk
+     */
+    private boolean write(WidgetState state) {
+        // Skip records whose widget was deleted while the flush was queued
+        synchronized (this) {
+            if (snapshot.get(state.getAppWidgetId()) == null) {
+                return false;
+            }
+        }
+        File file = fileFor(state.getAppWidgetId());
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeByte(RECORD_VERSION);
+                out.writeUTF(state.theme);
+                out.writeUTF(state.appearance);
+                out.writeBoolean(state.notifications);
+                out.writeUTF(state.quote);
+                out.writeUTF(state.reference);
+                out.writeUTF(state.quoteTheme);
+                out.writeBoolean(state.saved);
+                out.writeInt(state.savedId);
+                out.writeUTF(state.translation);
+                out.writeInt(state.maxQuoteLength);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                Log.e(TAG, "Could not replace state for widget " + state.getAppWidgetId());
+                return false;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing state for widget " + state.getAppWidgetId(), e);
+            return false;
+        }
+        // A delete that ran during the write removed the file before the rename recreated it
+        synchronized (this) {
+            if (snapshot.get(state.getAppWidgetId()) == null) {
+                file.delete();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private WidgetState load(int appWidgetId) {
+        WidgetState state = new WidgetState(appWidgetId);
+        File file = fileFor(appWidgetId);
+        if (!file.exists()) {
+            if (migrateFromPreferences(state)) {
+                migrated.put(appWidgetId, true);
+                dirty.put(appWidgetId, state.copy());
+                scheduleFlush();
+            }
+            return state;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int version = in.readUnsignedByte();
+                if (version < 1 || version > RECORD_VERSION) {
+                    throw new IOException("Unknown record version " + version);
+                }
+                state.theme = in.readUTF();
+                state.appearance = in.readUTF();
+                state.notifications = in.readBoolean();
+                state.quote = in.readUTF();
+                state.reference = in.readUTF();
+                state.quoteTheme = in.readUTF();
+                state.saved = in.readBoolean();
+                state.savedId = in.readInt();
+                if (version >= 2) {
+                    state.translation = in.readUTF();
+                }
+                if (version >= 3) {
+                    state.maxQuoteLength = in.readInt();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Resetting unreadable state for widget " + appWidgetId, e);
+            return new WidgetState(appWidgetId);
+        }
+        return state;
+    }
+
+    private boolean migrateFromPreferences(WidgetState state) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        int id = state.getAppWidgetId();
+        String prefix = "widget_" + id;
+        if (!prefs.contains("theme_" + id) && !prefs.contains(prefix + "_current_quote")) {
+            return false;
+        }
+        state.theme = prefs.getString("theme_" + id, state.theme);
+        state.appearance = prefs.getString("appearance_" + id, state.appearance);
+        state.notifications = prefs.getBoolean("notifications_" + id, state.notifications);
+        state.quote = prefs.getString(prefix + "_current_quote", "");
+        state.reference = prefs.getString(prefix + "_current_reference", "");
+        state.quoteTheme = prefs.getString(prefix + "_current_theme", "");
+        state.saved = prefs.getBoolean(prefix + "_is_saved", false);
+        state.savedId = prefs.getInt(prefix + "_saved_id", -1);
+        return true;
+    }
+
+    /**
+     * Drop a migrated widget's preference keys once its record is on disk. Until
+     * then a kill only costs another migration on the next read.
+     */
+    private void removeMigratedPreferences(int appWidgetId) {
+        synchronized (this) {
+            if (!migrated.get(appWidgetId)) {
+                return;
+            }
+            migrated.delete(appWidgetId);
+        }
+        removePreferences(appWidgetId);
+    }
+
+    private void removePreferences(int id) {
+        String prefix = "widget_" + id;
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .remove("theme_" + id)
+                .remove("appearance_" + id)
+                .remove("notifications_" + id)
+                .remove(prefix + "_current_quote")
+                .remove(prefix + "_current_reference")
+                .remove(prefix + "_current_theme")
+                .remove(prefix + "_is_saved")
+                .remove(prefix + "_saved_id")
+                .remove(prefix + "_next_quote")
+                .remove(prefix + "_next_reference")
+                .remove(prefix + "_next_theme")
+                .apply();
+    }
+}
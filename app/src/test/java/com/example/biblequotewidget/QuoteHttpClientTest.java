@@ -0,0 +1,177 @@
+package com.example.biblequotewidget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the client against a stand-in for bible-api.com on a local port
+ */
+public class QuoteHttpClientTest {
+    private static final byte[] PASSAGE = "{\"verses\":[]}".getBytes();
+
+    private interface Handler {
+        void handle(int request, HttpExchange exchange) throws Exception;
+    }
+
+    private final QuoteHttpClient client = QuoteHttpClient.getInstance();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile Handler handler;
+    private ExecutorService serverThreads;
+    private HttpServer server;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/", exchange -> {
+            try {
+                handler.handle(requests.incrementAndGet(), exchange);
+            } catch (Exception e) {
+                // The client went away first
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        // Each test gets its own port, so its own breaker
+        baseUrl = "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void streamsTheBody() throws IOException {
+        handler = (request, exchange) -> respond(exchange, 200, PASSAGE);
+
+        String[] body = new String[1];
+        int code = client.stream(baseUrl + "John%203:16", reader -> body[0] = read(reader));
+
+        assertEquals(HttpURLConnection.HTTP_OK, code);
+        assertEquals(new String(PASSAGE), body[0]);
+    }
+
+    @Test
+    public void serverFailuresOpenTheBreaker() throws IOException {
+        handler = (request, exchange) -> respond(exchange, 503, null);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(503, client.stream(baseUrl + "John%203:16", reader -> fail("Read an error body")));
+        }
+        try {
+            client.stream(baseUrl + "John%203:17", reader -> fail("Read a refused request"));
+            fail("Request went through an open breaker");
+        } catch (QuoteHttpClient.CircuitOpenException expected) {
+            assertTrue(expected.getRetryDelayMillis() > 0);
+        }
+        // Refused without touching the network
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void clientErrorsLeaveTheBreakerClosed() throws IOException {
+        handler = (request, exchange) -> respond(exchange, 404, "{\"error\":\"not found\"}".getBytes());
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(404, client.stream(baseUrl + "Nowhere%201:1", reader -> fail("Read an error body")));
+        }
+        assertEquals(5, requests.get());
+    }
+
+    @Test
+    public void slowRequestIsHedged() throws Exception {
+        warmUp();
+        int slow = requests.get() + 1;
+        handler = (request, exchange) -> {
+            if (request == slow) {
+                Thread.sleep(3000);
+            }
+            respond(exchange, 200, PASSAGE);
+        };
+        long hedged = QuoteMetrics.FETCH_HEDGED.get();
+        long wins = QuoteMetrics.FETCH_HEDGE_WINS.get();
+
+        String[] body = new String[1];
+        long start = System.nanoTime();
+        int code = client.stream(baseUrl + "Romans%208:1-16", true, reader -> body[0] = read(reader));
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(HttpURLConnection.HTTP_OK, code);
+        assertEquals(new String(PASSAGE), body[0]);
+        assertTrue("took " + millis + " ms", millis < 2000);
+        assertEquals(hedged + 1, QuoteMetrics.FETCH_HEDGED.get());
+        assertEquals(wins + 1, QuoteMetrics.FETCH_HEDGE_WINS.get());
+    }
+
+    @Test
+    public void requestsAreOnlyHedgedWhenAsked() throws Exception {
+        warmUp();
+        int first = requests.get() + 1;
+        handler = (request, exchange) -> {
+            Thread.sleep(500);
+            respond(exchange, 200, PASSAGE);
+        };
+        long hedged = QuoteMetrics.FETCH_HEDGED.get();
+
+        int code = client.stream(baseUrl + "Romans%208:1-16", false, QuoteHttpClientTest::read);
+
+        assertEquals(HttpURLConnection.HTTP_OK, code);
+
+        assertEquals(first, requests.get());
+        assertEquals(hedged, QuoteMetrics.FETCH_HEDGED.get());
+    }
+
+    /**
+     * Give the fetch histogram enough fast samples to set a hedge delay
+     */
+    private void warmUp() throws IOException {
+        handler = (request, exchange) -> respond(exchange, 200, PASSAGE);
+        for (int i = 0; i < 25; i++) {
+            client.stream(baseUrl + "Psalms%2023:1", QuoteHttpClientTest::read);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int code, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, body == null ? -1 : body.length);
+        if (body != null) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            out.write(buffer, 0, length);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.biblequotewidget;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class SearchIndexTest {
+    private final SearchIndex index = new SearchIndex();
+
+    @Before
+    public void setUp() {
+        index.add(1, "The LORD is my shepherd; I shall not want.");
+        index.add(2, "For God so loved the world, that he gave his only begotten Son");
+        index.add(3, "Jesus wept.");
+        index.add(4, "The LORD's mercies are new every morning: great is thy faithfulness.");
+    }
+
+    private int[] docIds(String query) {
+        List<SearchIndex.Hit> hits = index.search(query, 10);
+        int[] ids = new int[hits.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = hits.get(i).getDocId();
+        }
+        return ids;
+    }
+
+    @Test
+    public void queriesAreSplitLikeDocuments() {
+        // Punctuation separates terms in a query as it does in the text
+        assertEquals(2, docIds("world,wept").length);
+        assertEquals(2, docIds("shepherd;wept").length);
+        assertEquals(3, docIds("\"wept.\"")[0]);
+    }
+
+    @Test
+    public void possessivesMatchTheirWord() {
+        assertEquals(2, docIds("lord").length);
+        assertEquals(2, docIds("LORD's").length);
+    }
+
+    @Test
+    public void starMakesAPrefixMatch() {
+        assertEquals(0, docIds("shep").length);
+        assertEquals(1, docIds("shep*")[0]);
+        int[] faith = docIds("wept, faith*");
+        assertEquals(2, faith.length);
+        // A star inside a word ends a prefix there: "lo*" finds lord and loved
+        assertEquals(3, docIds("lo*ved").length);
+    }
+
+    @Test
+    public void removedDocumentsAreNotFound() {
+        index.remove(3, "Jesus wept.");
+        assertEquals(0, docIds("wept").length);
+        assertEquals(3, index.getDocCount());
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.biblequotewidget;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A synthetic corpus shaped like a full Bible: 66 books and about 31,000
+ * verses of a few words to a few hundred characters. Words come from a
+ * skewed vocabulary, so the word dictionary codes it much as it would real
+ * text.
+ */
+final class BenchmarkCorpus {
+    private static final int VOCABULARY_SIZE = 4000;
+    private static final int CHAPTERS = 18;
+    private static final int VERSES = 26;
+
+    private BenchmarkCorpus() {
+    }
+
+    static VerseStore write(File file) throws IOException {
+        Random random = new Random(42);
+        String[] vocabulary = new String[VOCABULARY_SIZE];
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] word = new char[2 + random.nextInt(8)];
+            for (int c = 0; c < word.length; c++) {
+                word[c] = (char) ('a' + random.nextInt(26));
+            }
+            vocabulary[i] = new String(word);
+        }
+
+        VerseStore.Writer writer = new VerseStore.Writer("kjv");
+        StringBuilder text = new StringBuilder();
+        for (int book = 1; book <= BibleBooks.BOOK_COUNT; book++) {
+            for (int chapter = 1; chapter <= CHAPTERS; chapter++) {
+                for (int verse = 1; verse <= VERSES; verse++) {
+                    text.setLength(0);
+                    int words = 4 + random.nextInt(48);
+                    for (int i = 0; i < words; i++) {
+                        if (i > 0) {
+                            text.append(' ');
+                        }
+                        // Cubing skews the draw towards the front of the vocabulary
+                        double skew = random.nextDouble();
+                        text.append(vocabulary[(int) (vocabulary.length * skew * skew * skew)]);
+                    }
+                    writer.add(book, chapter, verse, text.toString());
+                }
+            }
+        }
+        writer.writeTo(file);
+        return VerseStore.open(file);
+    }
+}
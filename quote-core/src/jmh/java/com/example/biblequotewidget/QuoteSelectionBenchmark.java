@@ -0,0 +1,66 @@
+package com.example.biblequotewidget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Drawing a quote from the verse store, as LocalQuoteDatabase.getRandomQuote
+ * and the widget refresh do once a corpus is installed
+ */
+@State(Scope.Thread)
+public class QuoteSelectionBenchmark {
+    private static final String[] THEMES = {
+        "hope", "love", "strength", "wisdom", "comfort", "motivation", "philosophical"
+    };
+
+    private File file;
+    private VerseStore store;
+    private int theme;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("corpus", ".bqv");
+        store = BenchmarkCorpus.write(file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    private int[] nextThemeBooks() {
+        theme = (theme + 1) % THEMES.length;
+        return QuoteThemes.getBooksForTheme(THEMES[theme]);
+    }
+
+    /**
+     * Theme lookup, one draw across the theme's books and one verse decode
+     */
+    @Benchmark
+    public void getRandomQuote(Blackhole blackhole) {
+        int index = store.randomIndex(nextThemeBooks(), ThreadLocalRandom.current());
+        blackhole.consume(store.getText(index));
+        blackhole.consume(store.getReference(index));
+    }
+
+    /**
+     * The same draw restricted to verses that fit a small widget
+     */
+    @Benchmark
+    public void getRandomFittingQuote(Blackhole blackhole) {
+        int[] books = nextThemeBooks();
+        int maxLengthClass = VerseStore.maxLengthClass(100);
+        int poolSize = store.getPoolSize(books, maxLengthClass);
+        int index = store.poolIndex(books, maxLengthClass, ThreadLocalRandom.current().nextInt(poolSize));
+        blackhole.consume(store.getText(index));
+        blackhole.consume(store.getReference(index));
+    }
+}
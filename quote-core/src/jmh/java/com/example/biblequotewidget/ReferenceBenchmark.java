@@ -0,0 +1,56 @@
+package com.example.biblequotewidget;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing a bible-api.com response and resolving a reference to its book
+ * code and theme, the per-quote work of every network fetch
+ */
+@State(Scope.Thread)
+public class ReferenceBenchmark {
+    private String[] references;
+    private String[] responses;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        references = new String[BibleBooks.BOOK_COUNT];
+        responses = new String[BibleBooks.BOOK_COUNT];
+        for (int book = 1; book <= BibleBooks.BOOK_COUNT; book++) {
+            String reference = BibleBooks.reference(book, 3, 16);
+            references[book - 1] = reference;
+            responses[book - 1] = "{\"reference\":\"" + reference + "\",\"verses\":[{\"book_id\":\""
+                    + BibleBooks.code(book) + "\",\"book_name\":\"" + BibleBooks.name(book)
+                    + "\",\"chapter\":3,\"verse\":16,\"text\":\"For God so loved the world, that he gave"
+                    + " his only begotten Son, that whosoever believeth in him should not perish, but have"
+                    + " everlasting life.\\n\"}],\"text\":\"For God so loved the world, that he gave his only"
+                    + " begotten Son, that whosoever believeth in him should not perish, but have everlasting"
+                    + " life.\\n\",\"translation_id\":\"kjv\",\"translation_name\":\"King James Version\","
+                    + "\"translation_note\":\"Public Domain\"}";
+        }
+    }
+
+    private int nextBook() {
+        next = (next + 1) % BibleBooks.BOOK_COUNT;
+        return next;
+    }
+
+    @Benchmark
+    public QuoteResponse parseQuoteResponse() throws JSONException {
+        return QuoteResponse.parse(responses[nextBook()]);
+    }
+
+    @Benchmark
+    public String extractBookCode() {
+        return QuoteThemes.extractBookCode(references[nextBook()]);
+    }
+
+    @Benchmark
+    public String determineThemeFromReference() {
+        return QuoteThemes.determineThemeFromReference(references[nextBook()]);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.biblequotewidget;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loading the saved-quotes log at startup and appending a save to it, as
+ * SavedQuoteStore does
+ */
+@State(Scope.Thread)
+public class SavedQuoteBenchmark {
+    private static final String QUOTE = "Trust in the LORD with all thine heart; and lean not unto"
+            + " thine own understanding.";
+
+    @Param({ "100", "10000" })
+    public int savedQuotes;
+
+    private File file;
+    private SavedQuoteLog log;
+    private int nextId;
+
+    private static class Quote implements SavedQuoteLog.Entry {
+        private final int id;
+        private final String quote;
+        private final String reference;
+        private final String theme;
+
+        Quote(int id, String quote, String reference, String theme) {
+            this.id = id;
+            this.quote = quote;
+            this.reference = reference;
+            this.theme = theme;
+        }
+
+        @Override
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public String getQuote() {
+            return quote;
+        }
+
+        @Override
+        public String getReference() {
+            return reference;
+        }
+
+        @Override
+        public String getTheme() {
+            return theme;
+        }
+    }
+
+    /**
+     * Start every iteration from a compacted log of savedQuotes quotes
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        file = File.createTempFile("saved", ".log");
+        log = new SavedQuoteLog(file);
+        List<Quote> quotes = new ArrayList<>(savedQuotes);
+        for (int id = 0; id < savedQuotes; id++) {
+            quotes.add(new Quote(id, QUOTE, BibleBooks.reference(20, 3, 1 + id % 30), "wisdom"));
+        }
+        nextId = savedQuotes;
+        log.rewrite(quotes, nextId);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Map<Integer, Quote> load() throws IOException {
+        final Map<Integer, Quote> live = new LinkedHashMap<>();
+        log.replay(new SavedQuoteLog.Visitor() {
+            @Override
+            public void onAdd(int id, String quote, String reference, String theme) {
+                live.put(id, new Quote(id, quote, reference, theme));
+            }
+
+            @Override
+            public void onDelete(int id) {
+                live.remove(id);
+            }
+        });
+        return live;
+    }
+
+    /**
+     * One synced append, which is what a tap on the save icon costs
+     */
+    @Benchmark
+    public int save() throws IOException {
+        int id = nextId++;
+        log.appendAdd(id, QUOTE, "Proverbs 3:5", "wisdom");
+        return id;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.biblequotewidget;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Failure tracking for one upstream endpoint.
+ *
+ * Closed, every request goes through. After {@code failureThreshold}
+ * failures in a row the breaker opens and requests are refused without
+ * touching the network. Once the open period has passed a single trial
+ * request is let through: success closes the breaker, failure opens it
+ * again for twice as long, up to {@code maxOpenMillis}. Each open period is
+ * jittered to between half and all of its nominal length so that clients
+ * that failed together do not all retry together.
+ *
+ * Each request is let through with a permit, which is handed back with its
+ * outcome. The permits of requests let through before the breaker last
+ * opened, or before the trial, are stale: their outcomes say nothing about
+ * the endpoint now and are ignored, so they can neither close an open
+ * breaker nor reopen one whose trial is still out.
+ */
+final class CircuitBreaker {
+    /** Returned by {@link #tryAcquire()} when no request may be made */
+    static final long REFUSED = -1;
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int HALF_OPEN = 2;
+
+    private final int failureThreshold;
+    private final long baseOpenNanos;
+    private final long maxOpenNanos;
+
+    private int state = CLOSED;
+    private int failures;
+    // Number of times in a row the breaker has opened; sets the backoff
+    private int openings;
+    private long retryAt;
+    // Advanced each time the breaker opens or lets a trial through; the permit of current requests
+    private long generation;
+
+    CircuitBreaker(int failureThreshold, long baseOpenMillis, long maxOpenMillis) {
+        this.failureThreshold = failureThreshold;
+        this.baseOpenNanos = TimeUnit.MILLISECONDS.toNanos(baseOpenMillis);
+        this.maxOpenNanos = TimeUnit.MILLISECONDS.toNanos(maxOpenMillis);
+    }
+
+    /**
+     * @return A permit for a request to be made now, to pass to
+     * {@link #onSuccess(long)} or {@link #onFailure(long)} with its
+     * outcome; {@link #REFUSED} if the breaker is open. When this lets the
+     * trial request of a half-open breaker through, the caller must report
+     * its outcome.
+     */
+    synchronized long tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    synchronized long tryAcquire(long nowNanos) {
+        switch (state) {
+            case CLOSED:
+                return generation;
+            case OPEN:
+                if (nowNanos - retryAt < 0) {
+                    return REFUSED;
+                }
+                state = HALF_OPEN;
+                return ++generation;
+            default:
+                // A trial request is already out
+                return REFUSED;
+        }
+    }
+
+    synchronized void onSuccess(long permit) {
+        if (permit != generation) {
+            // Let through before the breaker opened; only the trial decides
+            return;
+        }
+        state = CLOSED;
+        failures = 0;
+        openings = 0;
+    }
+
+    /**
+     * @return true if this failure opened the breaker
+     */
+    synchronized boolean onFailure(long permit) {
+        return onFailure(permit, System.nanoTime(), ThreadLocalRandom.current());
+    }
+
+    synchronized boolean onFailure(long permit, long nowNanos, Random random) {
+        if (permit != generation) {
+            // A stale outcome, or the breaker is already open
+            return false;
+        }
+        failures++;
+        if (state == CLOSED && failures < failureThreshold) {
+            return false;
+        }
+        state = OPEN;
+        generation++;
+        long openNanos = maxOpenNanos;
+        if (openings < 62 && baseOpenNanos < maxOpenNanos >> openings) {
+            openNanos = baseOpenNanos << openings;
+        }
+        openings++;
+        long half = openNanos / 2;
+        retryAt = nowNanos + half + (long) (random.nextDouble() * (openNanos - half));
+        return true;
+    }
+
+    synchronized boolean isOpen() {
+        return state != CLOSED;
+    }
+
+    /**
+     * @return Milliseconds until a trial request will be allowed; 0 if
+     * requests are allowed now
+     */
+    synchronized long getRetryDelayMillis() {
+        if (state != OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(retryAt - System.nanoTime()));
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.biblequotewidget;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Builds a verse store from a downloaded corpus pack or delta.
+ *
+ * Both are gzip streams read straight off the network. The store is written
+ * to a target file and hashed as it is written, so checking it against the
+ * manifest digest costs no second pass over the file. A truncated stream or
+ * a digest mismatch is an IOException, and the target should be discarded.
+ *
+ * Delta layout (big-endian, inside the gzip stream):
+ * <pre>
+ *   int     magic ("BQVD")
+ *   int     from version, int to version
+ *   byte[32] sha256 of the base store
+ *   ops: byte 1 COPY  { int offset, int length }  copy from the base store
+ *        byte 2 INSERT { int length, byte[length] }
+ *        byte 0 END
+ * </pre>
+ */
+final class CorpusPack {
+    static final int DELTA_MAGIC = 0x42515644;
+    static final int OP_END = 0;
+    static final int OP_COPY = 1;
+    static final int OP_INSERT = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CorpusPack() {
+    }
+
+    /**
+     * Decompress a full pack into the target file
+     * @param gzip The pack; read to its end but not closed
+     * @param expectedSha256 Digest of the uncompressed store, in hex
+     * @throws IOException if the pack is truncated or corrupt, or the store
+     * does not match the digest
+     */
+    static void unpack(InputStream gzip, File target, String expectedSha256) throws IOException {
+        InputStream in = new GZIPInputStream(gzip, BUFFER_SIZE);
+        MessageDigest digest = newDigest();
+        FileOutputStream fileOut = new FileOutputStream(target);
+        try {
+            OutputStream out = new DigestOutputStream(fileOut, digest);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        checkDigest(digest, expectedSha256);
+    }
+
+    /**
+     * Rebuild a store from the installed one and a delta
+     * @param gzip The delta; read to its END op but not closed
+     * @param baseVersion Version of the installed store, which the delta must start from
+     * @param expectedSha256 Digest of the rebuilt store, in hex
+     * @throws IOException if the delta is for another base, truncated or
+     * corrupt, or the rebuilt store does not match the digest
+     */
+    static void applyDelta(InputStream gzip, File base, int baseVersion, File target, String expectedSha256)
+            throws IOException {
+        DataInputStream ops = new DataInputStream(new BufferedInputStream(new GZIPInputStream(gzip, BUFFER_SIZE)));
+        if (ops.readInt() != DELTA_MAGIC) {
+            throw new IOException("Not a corpus delta");
+        }
+        int fromVersion = ops.readInt();
+        ops.readInt();
+        byte[] baseDigest = new byte[32];
+        ops.readFully(baseDigest);
+        if (fromVersion != baseVersion || !toHex(baseDigest).equalsIgnoreCase(sha256(base))) {
+            throw new IOException("Delta does not apply to the installed corpus");
+        }
+
+        MessageDigest digest = newDigest();
+        RandomAccessFile baseFile = new RandomAccessFile(base, "r");
+        FileOutputStream fileOut = new FileOutputStream(target);
+        try {
+            OutputStream out = new BufferedOutputStream(new DigestOutputStream(fileOut, digest), BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (true) {
+                int op = ops.readUnsignedByte();
+                if (op == OP_END) {
+                    break;
+                }
+                int offset = op == OP_COPY ? ops.readInt() : 0;
+                int length = ops.readInt();
+                if (length < 0 || (op == OP_COPY && (offset < 0 || (long) offset + length > baseFile.length()))) {
+                    throw new IOException("Corrupt delta op");
+                }
+                if (op == OP_COPY) {
+                    baseFile.seek(offset);
+                }
+                while (length > 0) {
+                    int chunk = Math.min(length, buffer.length);
+                    if (op == OP_COPY) {
+                        baseFile.readFully(buffer, 0, chunk);
+                    } else if (op == OP_INSERT) {
+                        ops.readFully(buffer, 0, chunk);
+                    } else {
+                        throw new IOException("Unknown delta op " + op);
+                    }
+                    out.write(buffer, 0, chunk);
+                    length -= chunk;
+                }
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+            baseFile.close();
+        }
+        checkDigest(digest, expectedSha256);
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new DigestInputStream(new FileInputStream(file), digest);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // Digest only
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void checkDigest(MessageDigest digest, String expectedSha256) throws IOException {
+        String actual = toHex(digest.digest());
+        if (!actual.equalsIgnoreCase(expectedSha256)) {
+            throw new IOException("Checksum mismatch: expected " + expectedSha256 + ", got " + actual);
+        }
+    }
+}
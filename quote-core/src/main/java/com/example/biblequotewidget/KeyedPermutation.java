@@ -0,0 +1,68 @@
+package com.example.biblequotewidget;
+
+/**
+ * A pseudo-random permutation of 0..size-1 chosen by a 64-bit key, evaluated
+ * one position at a time without building any table.
+ *
+ * A balanced Feistel network permutes the smallest power-of-four range that
+ * holds {@code size}; values that land outside are fed back through the
+ * network ("cycle walking") until they fall inside, which keeps the mapping a
+ * bijection on 0..size-1. Fewer than four rounds through the network are
+ * needed on average. The same key and size always give the same order, on
+ * any device.
+ */
+final class KeyedPermutation {
+    private static final int ROUNDS = 4;
+
+    private final int size;
+    private final long key;
+    private final int halfBits;
+    private final int halfMask;
+
+    KeyedPermutation(int size, long key) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.size = size;
+        this.key = key;
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(size - 1, 1));
+        this.halfBits = (bits + 1) / 2;
+        this.halfMask = (1 << halfBits) - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The element at {@code position} (taken modulo the size) of the permuted order
+     */
+    int get(long position) {
+        long start = position % size;
+        int value = (int) (start < 0 ? start + size : start);
+        do {
+            value = encrypt(value);
+        } while (value >= size);
+        return value;
+    }
+
+    private int encrypt(int value) {
+        int left = value >>> halfBits;
+        int right = value & halfMask;
+        for (int round = 0; round < ROUNDS; round++) {
+            int next = left ^ ((int) mix(key + round * 0x9E3779B97F4A7C15L + right) & halfMask);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    /**
+     * SplitMix64 finalizer; also used to derive keys from seeds
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
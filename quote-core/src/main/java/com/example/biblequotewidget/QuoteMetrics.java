@@ -0,0 +1,180 @@
+package com.example.biblequotewidget;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide counters and latency histograms for the widget update
+ * pipeline, for {@code dumpsys} and the debug metrics screen.
+ *
+ * Recording never locks or allocates: a counter is one atomic add and a
+ * histogram sample a handful. Histograms bucket by powers of two of
+ * microseconds, so percentiles are upper bounds accurate to within a
+ * factor of two, which is enough to tell a 20 ms refresh from a 15 s
+ * timeout.
+ */
+public final class QuoteMetrics {
+    private static final List<Object> METRICS = new CopyOnWriteArrayList<>();
+
+    /** Network requests to bible-api.com, including reading the body */
+    public static final Histogram FETCH = histogram("fetch");
+    public static final Counter FETCH_ERRORS = counter("fetch.errors");
+    public static final Counter FETCH_TIMEOUTS = counter("fetch.timeouts");
+    /** Requests refused because the endpoint's circuit breaker was open */
+    public static final Counter FETCH_REFUSED = counter("fetch.refused");
+    public static final Counter BREAKER_OPENED = counter("breaker.opened");
+    /** Second requests sent because the first was slower than the fetch p95 */
+    public static final Counter FETCH_HEDGED = counter("fetch.hedged");
+    public static final Counter FETCH_HEDGE_WINS = counter("fetch.hedge.wins");
+    /** Corpus pack and delta downloads, kept apart so they do not inflate the fetch p95 */
+    public static final Histogram PACK = histogram("pack");
+    /** Decoding a response into quotes */
+    public static final Histogram PARSE = histogram("parse");
+    /** Verse cache lookups, memory then disk */
+    public static final Histogram CACHE = histogram("cache");
+    public static final Counter CACHE_HITS = counter("cache.hits");
+    public static final Counter CACHE_MISSES = counter("cache.misses");
+    /** Giving a set of widgets new quotes, including the push */
+    public static final Histogram REFRESH = histogram("refresh");
+    public static final Counter REFRESH_PREFETCHED = counter("refresh.prefetched");
+    public static final Counter REFRESH_LOCAL = counter("refresh.local");
+    /** Settling and pushing widget views */
+    public static final Histogram UPDATE_WIDGETS = histogram("update.widgets");
+    public static final Counter PUSH_FULL = counter("push.full");
+    public static final Counter PUSH_PARTIAL = counter("push.partial");
+    public static final Counter PUSH_SKIPPED = counter("push.skipped");
+    /** Periodic job runs, from start to jobFinished */
+    public static final Histogram WAKEUP = histogram("wakeup");
+    public static final Counter WAKEUP_STOPPED = counter("wakeup.stopped");
+
+    private QuoteMetrics() {
+    }
+
+    public static final class Counter {
+        private final String name;
+        private final AtomicLong value = new AtomicLong();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    public static final class Histogram {
+        // Bucket 0 holds samples under 1 us, bucket i samples under 2^i us
+        private static final int BUCKETS = 40;
+
+        private final String name;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalMicros = new AtomicLong();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        private Histogram(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Record the time since a {@link System#nanoTime()} reading
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalMicros.addAndGet(micros);
+            long max = maxMicros.get();
+            while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+                max = maxMicros.get();
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMaxMicros() {
+            return maxMicros.get();
+        }
+
+        public long getMeanMicros() {
+            long samples = count.get();
+            return samples == 0 ? 0 : totalMicros.get() / samples;
+        }
+
+        /**
+         * @param quantile e.g. 0.95
+         * @return An upper bound on the quantile in microseconds; 0 with no samples
+         */
+        public long getPercentileMicros(double quantile) {
+            long samples = count.get();
+            if (samples == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * samples);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += buckets.get(bucket);
+                if (seen >= rank) {
+                    return Math.min(1L << bucket, maxMicros.get());
+                }
+            }
+            return maxMicros.get();
+        }
+    }
+
+    private static Counter counter(String name) {
+        Counter counter = new Counter(name);
+        METRICS.add(counter);
+        return counter;
+    }
+
+    private static Histogram histogram(String name) {
+        Histogram histogram = new Histogram(name);
+        METRICS.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * Write every metric, one per line, in registration order
+     */
+    public static void dump(PrintWriter writer) {
+        for (Object metric : METRICS) {
+            if (metric instanceof Counter) {
+                Counter counter = (Counter) metric;
+                writer.println(String.format(Locale.US, "%-16s %d", counter.name, counter.get()));
+            } else {
+                Histogram histogram = (Histogram) metric;
+                writer.println(String.format(Locale.US,
+                        "%-16s n=%d mean=%s p50=%s p95=%s p99=%s max=%s", histogram.name,
+                        histogram.getCount(), millis(histogram.getMeanMicros()),
+                        millis(histogram.getPercentileMicros(0.5)), millis(histogram.getPercentileMicros(0.95)),
+                        millis(histogram.getPercentileMicros(0.99)), millis(histogram.getMaxMicros())));
+            }
+        }
+        writer.flush();
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.US, "%.1fms", micros / 1000.0);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.biblequotewidget;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A single verse as returned by bible-api.com, e.g.
+ * {@code {"reference": "John 3:16", "text": "...", "translation_name": "King James Version"}},
+ * with the theme its book belongs to.
+ */
+final class QuoteResponse {
+    private final String reference;
+    private final String text;
+    private final String translation;
+    private final String theme;
+
+    private QuoteResponse(String reference, String text, String translation, String theme) {
+        this.reference = reference;
+        this.text = text;
+        this.translation = translation;
+        this.theme = theme;
+    }
+
+    static QuoteResponse parse(String json) throws JSONException {
+        JSONObject jsonObject = new JSONObject(json);
+
+        String reference = jsonObject.getString("reference");
+        String text = jsonObject.getString("text").trim();
+        String translation = jsonObject.getString("translation_name");
+
+        return new QuoteResponse(reference, text, translation, QuoteThemes.determineThemeFromReference(reference));
+    }
+
+    String getReference() {
+        return reference;
+    }
+
+    String getText() {
+        return text;
+    }
+
+    String getTranslation() {
+        return translation;
+    }
+
+    String getTheme() {
+        return theme;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.biblequotewidget;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Which books belong to which theme, and which theme a verse belongs to.
+ * Each book has a bitmask of its themes, so resolving a reference is one
+ * table read, and each theme has its books repeated by weight, so a
+ * weighted pick is one array read.
+ */
+final class QuoteThemes {
+    // Themes in priority order: a book in several themes resolves to the first
+    private static final String[] THEMES = {
+        "hope", "love", "strength", "motivation", "wisdom", "comfort", "philosophical"
+    };
+    private static final int HOPE = 0;
+    private static final int LOVE = 1;
+    private static final int STRENGTH = 2;
+    private static final int MOTIVATION = 3;
+    private static final int WISDOM = 4;
+    private static final int COMFORT = 5;
+    private static final int PHILOSOPHICAL = 6;
+
+    // Bitmask of themes per book number (index 0 unused)
+    private static final int[] BOOK_THEMES = new int[BibleBooks.BOOK_COUNT + 1];
+    // Relative weight of a book when picking one to fetch from, roughly by length
+    private static final int[] BOOK_WEIGHTS = new int[BibleBooks.BOOK_COUNT + 1];
+    // Per theme, its books in order
+    private static final int[][] THEME_BOOKS = new int[THEMES.length][];
+    // Per theme, each of its books repeated by weight, so a weighted pick is one array read
+    private static final int[][] THEME_DRAWS = new int[THEMES.length][];
+
+    static {
+        // Hope theme - books with verses about hope
+        addTheme(HOPE, "ROM", "PSA", "ISA", "JER");
+
+        // Love theme - books with verses about love
+        addTheme(LOVE, "1CO", "1JN", "SNG", "JHN");
+
+        // Strength theme - books with verses about strength
+        addTheme(STRENGTH, "PSA", "ISA", "PHP", "2CO");
+
+        // Motivation theme - books with verses about motivation and encouragement
+        addTheme(MOTIVATION, "PHP", "JOS", "2TI", "HEB");
+
+        // Wisdom theme - books with verses about wisdom
+        addTheme(WISDOM, "PRO", "ECC", "JOB", "JAS");
+
+        // Comfort theme - books with verses about comfort
+        addTheme(COMFORT, "PSA", "ISA", "MAT", "2CO");
+
+        // Philosophical theme - books with philosophical content
+        addTheme(PHILOSOPHICAL, "ECC", "JOB", "PRO", "ROM");
+
+        for (int book = 1; book <= BibleBooks.BOOK_COUNT; book++) {
+            BOOK_WEIGHTS[book] = 1;
+        }
+        BOOK_WEIGHTS[BibleBooks.fromCode("PSA")] = 4;
+        BOOK_WEIGHTS[BibleBooks.fromCode("ISA")] = 3;
+        BOOK_WEIGHTS[BibleBooks.fromCode("JER")] = 3;
+        BOOK_WEIGHTS[BibleBooks.fromCode("MAT")] = 2;
+        BOOK_WEIGHTS[BibleBooks.fromCode("JHN")] = 2;
+        BOOK_WEIGHTS[BibleBooks.fromCode("JOB")] = 2;
+        BOOK_WEIGHTS[BibleBooks.fromCode("PRO")] = 2;
+        BOOK_WEIGHTS[BibleBooks.fromCode("JOS")] = 2;
+
+        for (int theme = 0; theme < THEMES.length; theme++) {
+            int total = 0;
+            for (int book : THEME_BOOKS[theme]) {
+                total += BOOK_WEIGHTS[book];
+            }
+            int[] draws = new int[total];
+            int slot = 0;
+            for (int book : THEME_BOOKS[theme]) {
+                for (int i = 0; i < BOOK_WEIGHTS[book]; i++) {
+                    draws[slot++] = book;
+                }
+            }
+            THEME_DRAWS[theme] = draws;
+        }
+    }
+
+    private static void addTheme(int theme, String... codes) {
+        int[] books = new int[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            books[i] = BibleBooks.fromCode(codes[i]);
+            BOOK_THEMES[books[i]] |= 1 << theme;
+        }
+        THEME_BOOKS[theme] = books;
+    }
+
+    private QuoteThemes() {
+    }
+
+    /**
+     * Get the books associated with a theme
+     * @return The 1-based book numbers, or null if the theme is unknown
+     */
+    static int[] getBooksForTheme(String theme) {
+        int index = themeIndex(theme);
+        return index >= 0 ? THEME_BOOKS[index] : null;
+    }
+
+    private static int themeIndex(String theme) {
+        for (int i = 0; i < THEMES.length; i++) {
+            if (THEMES[i].equalsIgnoreCase(theme)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Pick a random book of a theme to fetch from, weighted by book length
+     * @return The book's code, or "NT" if the theme is unknown
+     */
+    static String pickBook(String theme) {
+        int index = themeIndex(theme);
+        if (index < 0) {
+            // If theme not found, use all books
+            return "NT";
+        }
+        // Get a random book from the theme, weighted by length
+        int[] draws = THEME_DRAWS[index];
+        return BibleBooks.code(draws[ThreadLocalRandom.current().nextInt(draws.length)]);
+    }
+
+    static String determineThemeFromReference(String reference) {
+        int themes = BOOK_THEMES[BibleBooks.fromReference(reference)];
+        if (themes == 0) {
+            return "wisdom"; // Default theme
+        }
+        // Lowest bit is the highest priority theme
+        return THEMES[Integer.numberOfTrailingZeros(themes)];
+    }
+
+    static String extractBookCode(String reference) {
+        // Extract book code from reference like "John 3:16"
+        int book = BibleBooks.fromReference(reference);
+        if (book != 0) {
+            return BibleBooks.code(book);
+        }
+        String name = reference.split(" ")[0].toUpperCase();
+        return name.substring(0, Math.min(3, name.length()));
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.biblequotewidget;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * The file format behind {@link SavedQuoteStore}: an append-only log of
+ * ADD records ({@code byte 1, int id, UTF quote, UTF reference, UTF theme})
+ * and tombstones ({@code byte 2, int id}), each followed by the CRC32 of
+ * its bytes.
+ */
+final class SavedQuoteLog {
+    private static final byte RECORD_ADD = 1;
+    private static final byte RECORD_DELETE = 2;
+
+    /**
+     * A live quote, as written back when the log is compacted
+     */
+    interface Entry {
+        int getId();
+        String getQuote();
+        String getReference();
+        String getTheme();
+    }
+
+    /**
+     * Receives the records of the log in order
+     */
+    interface Visitor {
+        void onAdd(int id, String quote, String reference, String theme);
+        void onDelete(int id);
+    }
+
+    private final File file;
+
+    SavedQuoteLog(File file) {
+        this.file = file;
+    }
+
+    boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * Read every intact record. A damaged record, with a bad checksum, an
+     * unknown type or malformed text, is skipped and reading resumes at the
+     * next intact record after it; only a torn tail after the last intact
+     * record is cut off the log.
+     * @return The number of bytes of damaged records, skipped or cut
+     */
+    long replay(Visitor visitor) throws IOException {
+        byte[] data = readFully();
+        int validLength = 0;
+        long damaged = 0;
+        int position = 0;
+        while (position < data.length) {
+            int length = replayRecord(data, position, visitor);
+            if (length > 0) {
+                damaged += position - validLength;
+                position += length;
+                validLength = position;
+            } else {
+                // Look for the next intact record one byte on
+                position++;
+            }
+        }
+
+        long cut = data.length - validLength;
+        if (cut > 0) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        }
+        return damaged + cut;
+    }
+
+    /**
+     * Decode the record at an offset and pass it to the visitor if it is intact
+     * @return The length of the record including its checksum, or -1 if
+     * there is no intact record at the offset
+     */
+    private static int replayRecord(byte[] data, int offset, Visitor visitor) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, data.length - offset));
+        try {
+            int type = in.readUnsignedByte();
+            if (type != RECORD_ADD && type != RECORD_DELETE) {
+                return -1;
+            }
+            int id = in.readInt();
+            String quote = null;
+            String reference = null;
+            String theme = null;
+            if (type == RECORD_ADD) {
+                quote = in.readUTF();
+                reference = in.readUTF();
+                theme = in.readUTF();
+            }
+            int length = data.length - offset - in.available();
+            CRC32 crc = new CRC32();
+            crc.update(data, offset, length);
+            if (in.readInt() != (int) crc.getValue()) {
+                return -1;
+            }
+
+            if (type == RECORD_ADD) {
+                visitor.onAdd(id, quote, reference, theme);
+            } else {
+                visitor.onDelete(id);
+            }
+            return length + 4;
+        } catch (IOException e) {
+            // EOFException for a torn record, UTFDataFormatException for mangled text
+            return -1;
+        }
+    }
+
+    private byte[] readFully() throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] data = new byte[(int) file.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    void appendAdd(int id, String quote, String reference, String theme) throws IOException {
+        append(encodeAdd(id, quote, reference, theme));
+    }
+
+    void appendDelete(int id) throws IOException {
+        append(encodeDelete(id));
+    }
+
+    private void append(byte[] record) throws IOException {
+        // One write() per record, so a crash can tear at most the last one
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(record);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Replace the log with one ADD record per live quote. Ids are kept.
+     * @param nextId The id the next saved quote will get
+     */
+    void rewrite(Iterable<? extends Entry> live, int nextId) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        boolean lastIdLive = false;
+        try {
+            BufferedOutputStream out = new BufferedOutputStream(fileOut);
+            for (Entry quote : live) {
+                out.write(encodeAdd(quote.getId(), quote.getQuote(), quote.getReference(), quote.getTheme()));
+                lastIdLive |= quote.getId() == nextId - 1;
+            }
+            // Keep ids increasing across compactions, even if the newest quote was deleted
+            if (nextId > 0 && !lastIdLive) {
+                out.write(encodeDelete(nextId - 1));
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace saved quotes log");
+        }
+    }
+
+    private static byte[] encodeAdd(int id, String quote, String reference, String theme) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_ADD);
+        out.writeInt(id);
+        out.writeUTF(quote);
+        out.writeUTF(reference);
+        out.writeUTF(theme);
+        return withChecksum(bytes);
+    }
+
+    private static byte[] encodeDelete(int id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_DELETE);
+        out.writeInt(id);
+        return withChecksum(bytes);
+    }
+
+    private static byte[] withChecksum(ByteArrayOutputStream bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        new DataOutputStream(bytes).writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,612 @@
+package com.example.biblequotewidget;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only verse corpus backed by a memory-mapped binary file.
+ *
+ * File layout (all integers big-endian):
+ * <pre>
+ *   int    magic ("BQVS")
+ *   int    format version
+ *   byte[8] translation code, ASCII, zero padded
+ *   int    verse count (N)
+ *   int    absolute offset of the text section
+ *   int[67] index of the first verse of each book (entry 66 == N)
+ *   N x { int key, int text offset }   sorted by key
+ *   int[67 x 6] per book, how many of its verses are in each length class or a shorter one
+ *   int[N] verse indices, each book's verses ordered by length class
+ *   int    word count (W)
+ *   int[W + 1] offset of each word in the word bytes
+ *   UTF-8 word bytes, concatenated
+ *   text section: per verse, the space-separated words of its text as varint word ids
+ * </pre>
+ * A key packs book, chapter and verse as {@code book << 16 | chapter << 8 | verse}.
+ * The most frequent words get the smallest ids, so most words take one or
+ * two bytes and the text section is around a quarter of the raw text. Each
+ * verse decodes on its own straight from the mapping. Nothing is copied onto
+ * the heap except the text of the verse being returned.
+ *
+ * The length index puts verses in classes by character count (see
+ * {@link #lengthClass(int)}), so the verses of a set of books that fit a
+ * given length can be counted and drawn from without decoding any text.
+ */
+public class VerseStore {
+
+    static final int MAGIC = 0x42515653;
+    static final int VERSION = 3;
+    // Upper character counts of the length classes; the last class has no limit
+    private static final int[] LENGTH_LIMITS = { 60, 100, 150, 220, 320 };
+    static final int LENGTH_CLASSES = LENGTH_LIMITS.length + 1;
+    static final int ANY_LENGTH = LENGTH_CLASSES - 1;
+    private static final int TRANSLATION_BYTES = 8;
+    private static final int BOOK_TABLE_OFFSET = 4 + 4 + TRANSLATION_BYTES + 4 + 4;
+    private static final int ENTRIES_OFFSET = BOOK_TABLE_OFFSET + (BibleBooks.BOOK_COUNT + 1) * 4;
+    private static final int ENTRY_SIZE = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final MappedByteBuffer buffer;
+    private final String translation;
+    private final int verseCount;
+    private final int textOffset;
+    private final int textLength;
+    // Absolute offsets of the word offset table and word bytes
+    private final int wordOffsets;
+    private final int wordBytes;
+    // Absolute offsets of the per-book length counts and the length order
+    private final int lengthCounts;
+    private final int lengthOrder;
+    // CRC-32 of the whole mapping, computed on first use; -1 until then
+    private long checksum = -1;
+
+    private VerseStore(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < ENTRIES_OFFSET || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a verse store file");
+        }
+        int version = buffer.getInt(4);
+        // Only the current format is ever written, by the build and by corpus packs
+        if (version != VERSION) {
+            throw new IOException("Unsupported verse store version " + version);
+        }
+        byte[] code = new byte[TRANSLATION_BYTES];
+        ByteBuffer header = buffer.duplicate();
+        header.position(8);
+        header.get(code);
+        int length = 0;
+        while (length < code.length && code[length] != 0) {
+            length++;
+        }
+        this.translation = new String(code, 0, length, UTF_8);
+        this.verseCount = buffer.getInt(16);
+        this.textOffset = buffer.getInt(20);
+        this.textLength = buffer.capacity() - textOffset;
+        // Section ends in longs, so a corrupt count cannot wrap around to a plausible offset
+        long entriesEnd = ENTRIES_OFFSET + (long) verseCount * ENTRY_SIZE;
+        if (verseCount < 0 || entriesEnd > buffer.capacity()) {
+            throw new IOException("Corrupt verse store header");
+        }
+        this.lengthCounts = (int) entriesEnd;
+        this.lengthOrder = lengthCounts + BibleBooks.BOOK_COUNT * LENGTH_CLASSES * 4;
+        long lengthOrderEnd = lengthOrder + verseCount * 4L;
+        if (lengthOrderEnd + 4 > buffer.capacity()) {
+            throw new IOException("Corrupt verse store header");
+        }
+        int wordCount = buffer.getInt((int) lengthOrderEnd);
+        this.wordOffsets = (int) lengthOrderEnd + 4;
+        long wordTableEnd = wordOffsets + (wordCount + 1L) * 4;
+        if (wordCount < 0 || wordTableEnd > textOffset || textLength < 0
+                || wordTableEnd + buffer.getInt(wordOffsets + wordCount * 4) != textOffset) {
+            throw new IOException("Corrupt verse store header");
+        }
+        this.wordBytes = (int) wordTableEnd;
+        // The book table bounds every lookup, so it must be in order and within the entries
+        int previous = 0;
+        for (int book = 1; book <= BibleBooks.BOOK_COUNT + 1; book++) {
+            int start = bookStart(book);
+            if (start < previous || start > verseCount) {
+                throw new IOException("Corrupt verse store header");
+            }
+            previous = start;
+        }
+        if (previous != verseCount) {
+            throw new IOException("Corrupt verse store header");
+        }
+    }
+
+    /**
+     * Map a verse store file read-only. The mapping stays valid after the
+     * underlying channel is closed.
+     */
+    public static VerseStore open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new VerseStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Map part of a file read-only, e.g. a verse store packaged as an
+     * uncompressed asset inside an APK. The mapping stays valid after the
+     * channel is closed.
+     */
+    public static VerseStore map(FileChannel channel, long offset, long length) throws IOException {
+        return new VerseStore(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+    }
+
+    public String getTranslation() {
+        return translation;
+    }
+
+    public int getVerseCount() {
+        return verseCount;
+    }
+
+    /**
+     * @return A CRC-32 of the whole store, so data derived from it, such as
+     * a search index, can tell when its text has changed. Reads the full
+     * mapping the first time it is called.
+     */
+    public synchronized long getChecksum() {
+        if (checksum < 0) {
+            CRC32 crc = new CRC32();
+            ByteBuffer all = buffer.duplicate();
+            all.clear();
+            byte[] chunk = new byte[64 * 1024];
+            while (all.hasRemaining()) {
+                int length = Math.min(chunk.length, all.remaining());
+                all.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+            checksum = crc.getValue();
+        }
+        return checksum;
+    }
+
+    /**
+     * @return The number of verses stored for a book, 0 if the book is absent
+     */
+    public int getVerseCount(int book) {
+        return bookStart(book + 1) - bookStart(book);
+    }
+
+    /**
+     * Check that another store numbers its verses exactly as this one does,
+     * so a verse index from either addresses the same verse in both
+     */
+    public boolean hasSameIndex(VerseStore other) {
+        if (other.verseCount != verseCount) {
+            return false;
+        }
+        for (int book = 1; book <= BibleBooks.BOOK_COUNT; book++) {
+            if (other.bookStart(book) != bookStart(book)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < verseCount; i++) {
+            if (other.keyAt(i) != keyAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find a single verse by reference, e.g. "John 3:16"
+     * @return The verse index, or -1 if it is not in the store or the
+     * reference is not a single verse
+     */
+    public int indexOf(String reference) {
+        int book = BibleBooks.fromReference(reference);
+        if (book == 0) {
+            return -1;
+        }
+        String trimmed = reference.trim();
+        String chapterAndVerse = trimmed.substring(trimmed.lastIndexOf(' ') + 1);
+        int colon = chapterAndVerse.indexOf(':');
+        if (colon < 0) {
+            return -1;
+        }
+        try {
+            return indexOf(book, Integer.parseInt(chapterAndVerse.substring(0, colon)),
+                    Integer.parseInt(chapterAndVerse.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            // A range such as 3:16-18
+            return -1;
+        }
+    }
+
+    /**
+     * Find a verse by book, chapter and verse number
+     * @return The verse index, or -1 if the verse is not in the store
+     */
+    public int indexOf(int book, int chapter, int verse) {
+        if (book < 1 || book > BibleBooks.BOOK_COUNT) {
+            return -1;
+        }
+        int key = packKey(book, chapter, verse);
+        int low = bookStart(book);
+        int high = bookStart(book + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midKey = keyAt(mid);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Pick a uniformly random verse index from one of the given books
+     * @return A verse index, or -1 if none of the books are in the store
+     */
+    public int randomIndex(int[] books, Random random) {
+        int total = getPoolSize(books);
+        if (total == 0) {
+            return -1;
+        }
+        return poolIndex(books, random.nextInt(total));
+    }
+
+    /**
+     * @param books 1-based book numbers
+     * @return The number of verses in the given books together
+     */
+    public int getPoolSize(int[] books) {
+        int total = 0;
+        for (int book : books) {
+            total += getVerseCount(book);
+        }
+        return total;
+    }
+
+    /**
+     * Map a position in the given books, taken in array order, to a verse index
+     * @param position 0 to {@link #getPoolSize(int[])} - 1
+     * @return The verse index, or -1 if the position is out of range
+     */
+    public int poolIndex(int[] books, int position) {
+        for (int book : books) {
+            int count = getVerseCount(book);
+            if (position < count) {
+                return bookStart(book) + position;
+            }
+            position -= count;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The length class of a verse text of the given number of characters
+     */
+    static int lengthClass(int length) {
+        for (int lengthClass = 0; lengthClass < LENGTH_LIMITS.length; lengthClass++) {
+            if (length <= LENGTH_LIMITS[lengthClass]) {
+                return lengthClass;
+            }
+        }
+        return ANY_LENGTH;
+    }
+
+    /**
+     * @param maxLength The most characters that fit, or 0 for no limit
+     * @return The longest length class whose verses all fit; the shortest
+     * class if even that is too long
+     */
+    static int maxLengthClass(int maxLength) {
+        if (maxLength <= 0) {
+            return ANY_LENGTH;
+        }
+        int lengthClass = 0;
+        while (lengthClass < LENGTH_LIMITS.length && LENGTH_LIMITS[lengthClass] <= maxLength) {
+            lengthClass++;
+        }
+        return Math.max(0, lengthClass - 1);
+    }
+
+    /**
+     * @return The number of verses in the given books no longer than a length
+     * class
+     */
+    public int getPoolSize(int[] books, int maxLengthClass) {
+        if (maxLengthClass >= ANY_LENGTH) {
+            return getPoolSize(books);
+        }
+        int total = 0;
+        for (int book : books) {
+            total += fittingCount(book, maxLengthClass);
+        }
+        return total;
+    }
+
+    /**
+     * Map a position in the fitting verses of a set of books to a verse index
+     * @param position 0 to {@link #getPoolSize(int[], int)} - 1
+     */
+    public int poolIndex(int[] books, int maxLengthClass, int position) {
+        if (maxLengthClass >= ANY_LENGTH) {
+            return poolIndex(books, position);
+        }
+        for (int book : books) {
+            int count = fittingCount(book, maxLengthClass);
+            if (position < count) {
+                return buffer.getInt(lengthOrder + (bookStart(book) + position) * 4);
+            }
+            position -= count;
+        }
+        return -1;
+    }
+
+    private int fittingCount(int book, int maxLengthClass) {
+        return buffer.getInt(lengthCounts + ((book - 1) * LENGTH_CLASSES + maxLengthClass) * 4);
+    }
+
+    public int getBook(int index) {
+        return keyAt(index) >>> 16;
+    }
+
+    public int getChapter(int index) {
+        return (keyAt(index) >>> 8) & 0xFF;
+    }
+
+    public int getVerse(int index) {
+        return keyAt(index) & 0xFF;
+    }
+
+    public String getReference(int index) {
+        int key = keyAt(index);
+        return BibleBooks.reference(key >>> 16, (key >>> 8) & 0xFF, key & 0xFF);
+    }
+
+    /**
+     * Decode the text of a single verse
+     */
+    public String getText(int index) {
+        int start = textStart(index);
+        int end = index + 1 < verseCount ? textStart(index + 1) : textLength;
+        // Roughly five text bytes per encoded byte; grown if a verse needs more
+        byte[] text = new byte[(end - start) * 6 + 16];
+        int length = 0;
+        int position = textOffset + start;
+        int limit = textOffset + end;
+        boolean first = true;
+        while (position < limit) {
+            int word = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = buffer.get(position++);
+                word |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            int wordStart = wordBytes + buffer.getInt(wordOffsets + word * 4);
+            int wordEnd = wordBytes + buffer.getInt(wordOffsets + word * 4 + 4);
+            int needed = length + 1 + wordEnd - wordStart;
+            if (needed > text.length) {
+                text = Arrays.copyOf(text, Math.max(needed, text.length * 2));
+            }
+            if (!first) {
+                text[length++] = ' ';
+            }
+            first = false;
+            for (int i = wordStart; i < wordEnd; i++) {
+                text[length++] = buffer.get(i);
+            }
+        }
+        return new String(text, 0, length, UTF_8);
+    }
+
+    static int packKey(int book, int chapter, int verse) {
+        return book << 16 | chapter << 8 | verse;
+    }
+
+    private int bookStart(int book) {
+        return buffer.getInt(BOOK_TABLE_OFFSET + (book - 1) * 4);
+    }
+
+    private int keyAt(int index) {
+        return buffer.getInt(ENTRIES_OFFSET + index * ENTRY_SIZE);
+    }
+
+    private int textStart(int index) {
+        return buffer.getInt(ENTRIES_OFFSET + index * ENTRY_SIZE + 4);
+    }
+
+    /**
+     * Builds verse store files. Used when installing a corpus and by tooling;
+     * never on the widget refresh path.
+     */
+    public static class Writer {
+        private final String translation;
+        private final List<Entry> entries = new ArrayList<>();
+
+        public Writer(String translation) {
+            if (translation.length() > TRANSLATION_BYTES) {
+                throw new IllegalArgumentException("Translation code too long: " + translation);
+            }
+            this.translation = translation;
+        }
+
+        public Writer add(int book, int chapter, int verse, String text) {
+            if (book < 1 || book > BibleBooks.BOOK_COUNT || chapter < 1 || chapter > 0xFF
+                    || verse < 1 || verse > 0xFF) {
+                throw new IllegalArgumentException("Invalid verse " + book + " " + chapter + ":" + verse);
+            }
+            entries.add(new Entry(packKey(book, chapter, verse), text));
+            return this;
+        }
+
+        /**
+         * Write the store to a temporary file and rename it into place, so
+         * readers never observe a partially written file.
+         */
+        public void writeTo(File file) throws IOException {
+            Collections.sort(entries);
+            int[] bookStart = new int[BibleBooks.BOOK_COUNT + 1];
+            int book = 1;
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                if (i > 0 && entries.get(i - 1).key == entry.key) {
+                    throw new IOException("Duplicate verse key " + Integer.toHexString(entry.key));
+                }
+                while (book <= (entry.key >>> 16)) {
+                    bookStart[book - 1] = i;
+                    book++;
+                }
+            }
+            while (book <= BibleBooks.BOOK_COUNT + 1) {
+                bookStart[book - 1] = entries.size();
+                book++;
+            }
+
+            // Order each book's verses by length class, counting how many fit each class
+            int[] lengthCounts = new int[BibleBooks.BOOK_COUNT * LENGTH_CLASSES];
+            int[] lengthOrder = new int[entries.size()];
+            for (book = 1; book <= BibleBooks.BOOK_COUNT; book++) {
+                int[] counts = new int[LENGTH_CLASSES];
+                for (int i = bookStart[book - 1]; i < bookStart[book]; i++) {
+                    counts[lengthClass(entries.get(i).text.length())]++;
+                }
+                int[] next = new int[LENGTH_CLASSES];
+                int fitting = 0;
+                for (int lengthClass = 0; lengthClass < LENGTH_CLASSES; lengthClass++) {
+                    next[lengthClass] = bookStart[book - 1] + fitting;
+                    fitting += counts[lengthClass];
+                    lengthCounts[(book - 1) * LENGTH_CLASSES + lengthClass] = fitting;
+                }
+                for (int i = bookStart[book - 1]; i < bookStart[book]; i++) {
+                    lengthOrder[next[lengthClass(entries.get(i).text.length())]++] = i;
+                }
+            }
+
+            // Number words by descending frequency so the common ones encode in one byte
+            final Map<String, Integer> counts = new HashMap<>();
+            for (Entry entry : entries) {
+                for (String word : entry.text.split(" ", -1)) {
+                    Integer count = counts.get(word);
+                    counts.put(word, count == null ? 1 : count + 1);
+                }
+            }
+            List<String> words = new ArrayList<>(counts.keySet());
+            Collections.sort(words, (a, b) -> {
+                int byCount = counts.get(b).compareTo(counts.get(a));
+                return byCount != 0 ? byCount : a.compareTo(b);
+            });
+            Map<String, Integer> ids = new HashMap<>(words.size() * 2);
+            for (int i = 0; i < words.size(); i++) {
+                ids.put(words.get(i), i);
+            }
+
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            int[] textStart = new int[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                textStart[i] = text.size();
+                for (String word : entries.get(i).text.split(" ", -1)) {
+                    int id = ids.get(word);
+                    while ((id & ~0x7F) != 0) {
+                        text.write((id & 0x7F) | 0x80);
+                        id >>>= 7;
+                    }
+                    text.write(id);
+                }
+            }
+            byte[][] wordBytes = new byte[words.size()][];
+            int wordBytesLength = 0;
+            for (int i = 0; i < words.size(); i++) {
+                wordBytes[i] = words.get(i).getBytes(UTF_8);
+                wordBytesLength += wordBytes[i].length;
+            }
+            int entriesEnd = ENTRIES_OFFSET + entries.size() * ENTRY_SIZE
+                    + (lengthCounts.length + lengthOrder.length) * 4;
+            int textOffset = entriesEnd + 4 + (words.size() + 1) * 4 + wordBytesLength;
+
+            File temp = new File(file.getPath() + ".tmp");
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                byte[] code = new byte[TRANSLATION_BYTES];
+                byte[] codeBytes = translation.getBytes(UTF_8);
+                System.arraycopy(codeBytes, 0, code, 0, codeBytes.length);
+                out.write(code);
+                out.writeInt(entries.size());
+                out.writeInt(textOffset);
+                for (int start : bookStart) {
+                    out.writeInt(start);
+                }
+                for (int i = 0; i < entries.size(); i++) {
+                    out.writeInt(entries.get(i).key);
+                    out.writeInt(textStart[i]);
+                }
+                for (int count : lengthCounts) {
+                    out.writeInt(count);
+                }
+                for (int index : lengthOrder) {
+                    out.writeInt(index);
+                }
+                out.writeInt(words.size());
+                int wordOffset = 0;
+                for (byte[] word : wordBytes) {
+                    out.writeInt(wordOffset);
+                    wordOffset += word.length;
+                }
+                out.writeInt(wordOffset);
+                for (byte[] word : wordBytes) {
+                    out.write(word);
+                }
+                text.writeTo(out);
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not move verse store into place: " + file);
+            }
+        }
+
+        private static class Entry implements Comparable<Entry> {
+            final int key;
+            final String text;
+
+            Entry(int key, String text) {
+                this.key = key;
+                this.text = text;
+            }
+
+            @Override
+            public int compareTo(Entry other) {
+                return key < other.key ? -1 : (key == other.key ? 0 : 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.biblequotewidget;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Builds a verse store from tab-separated source text, one verse per line:
+ * <pre>
+ *   book &lt;TAB&gt; chapter &lt;TAB&gt; verse &lt;TAB&gt; text
+ * </pre>
+ * The book is a USFM code such as "JHN", a name such as "1 John", or a
+ * number from 1 to 66. Blank lines and lines starting with '#' are skipped,
+ * and runs of white space in the text are collapsed to one space.
+ *
+ * Run from the build with {@code ./gradlew :app:buildVerseStore}, or
+ * directly with the source file, translation code and target file as
+ * arguments. Prints the verse count and the sha256 for a pack manifest.
+ */
+public final class VerseStoreTool {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private VerseStoreTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: VerseStoreTool <source.tsv> <translation> <target.bqv>");
+            System.exit(2);
+        }
+        File target = new File(args[2]);
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        int verses = build(new File(args[0]), args[1], target);
+        System.out.println("Wrote " + verses + " verses to " + target);
+        System.out.println("sha256 " + CorpusPack.sha256(target));
+    }
+
+    /**
+     * @return The number of verses written
+     * @throws IOException If the source cannot be read or has a malformed
+     * line, unknown book or duplicate verse; nothing is written then
+     */
+    static int build(File source, String translation, File target) throws IOException {
+        VerseStore.Writer writer = new VerseStore.Writer(translation);
+        int verses = 0;
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(source), UTF_8));
+        try {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 4);
+                if (fields.length < 4) {
+                    throw new IOException(source + ":" + number + ": expected book, chapter, verse and text");
+                }
+                int book = book(fields[0].trim());
+                if (book == 0) {
+                    throw new IOException(source + ":" + number + ": unknown book '" + fields[0] + "'");
+                }
+                String text = fields[3].trim().replaceAll("\\s+", " ");
+                if (text.isEmpty()) {
+                    throw new IOException(source + ":" + number + ": missing text");
+                }
+                try {
+                    writer.add(book, Integer.parseInt(fields[1].trim()), Integer.parseInt(fields[2].trim()), text);
+                } catch (IllegalArgumentException e) {
+                    // Also a NumberFormatException
+                    throw new IOException(source + ":" + number + ": invalid chapter or verse", e);
+                }
+                verses++;
+            }
+        } finally {
+            in.close();
+        }
+        if (verses == 0) {
+            throw new IOException(source + ": no verses");
+        }
+        writer.writeTo(target);
+        return verses;
+    }
+
+    private static int book(String field) {
+        try {
+            int book = Integer.parseInt(field);
+            return book >= 1 && book <= BibleBooks.BOOK_COUNT ? book : 0;
+        } catch (NumberFormatException e) {
+            // A code such as "1JN" or a name
+        }
+        int book = BibleBooks.fromCode(field.toUpperCase(Locale.ROOT));
+        return book != 0 ? book : BibleBooks.fromName(field);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.biblequotewidget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BibleBooksTest {
+    @Test
+    public void verseCountsCoverTheWholeCanon() {
+        int total = 0;
+        for (int book = 1; book <= BibleBooks.BOOK_COUNT; book++) {
+            for (int chapter = 1; chapter <= BibleBooks.chapterCount(book); chapter++) {
+                int verses = BibleBooks.verseCount(book, chapter);
+                assertTrue(BibleBooks.name(book) + " " + chapter, verses > 0);
+                total += verses;
+            }
+        }
+        assertEquals(31102, total);
+    }
+
+    @Test
+    public void verseCountsOfKnownChapters() {
+        assertEquals(31, BibleBooks.verseCount(1, 1));
+        assertEquals(176, BibleBooks.verseCount(19, 119));
+        assertEquals(2, BibleBooks.verseCount(19, 117));
+        assertEquals(36, BibleBooks.verseCount(43, 3));
+        assertEquals(39, BibleBooks.verseCount(45, 8));
+        assertEquals(21, BibleBooks.verseCount(66, 22));
+    }
+
+    @Test
+    public void missingChaptersHaveNoVerses() {
+        assertEquals(0, BibleBooks.verseCount(43, 22));
+        assertEquals(0, BibleBooks.verseCount(43, 0));
+        assertEquals(0, BibleBooks.verseCount(0, 1));
+        assertEquals(0, BibleBooks.verseCount(BibleBooks.BOOK_COUNT + 1, 1));
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.biblequotewidget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class CircuitBreakerTest {
+    private static final long BASE = TimeUnit.MILLISECONDS.toNanos(1000);
+    private static final long MAX = TimeUnit.MILLISECONDS.toNanos(3000);
+
+    private final CircuitBreaker breaker = new CircuitBreaker(3, 1000, 3000);
+
+    @Test
+    public void opensAtTheThreshold() {
+        long permit = breaker.tryAcquire(0);
+        assertFalse(breaker.onFailure(permit, 0, fixed(1)));
+        assertFalse(breaker.onFailure(permit, 0, fixed(1)));
+        assertEquals(permit, breaker.tryAcquire(0));
+        assertTrue(breaker.onFailure(permit, 0, fixed(1)));
+        assertTrue(breaker.isOpen());
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(0));
+    }
+
+    @Test
+    public void successResetsTheFailureCount() {
+        long permit = breaker.tryAcquire(0);
+        breaker.onFailure(permit, 0, fixed(1));
+        breaker.onFailure(permit, 0, fixed(1));
+        breaker.onSuccess(permit);
+        assertFalse(breaker.onFailure(permit, 0, fixed(1)));
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void letsOneTrialThroughAfterTheOpenPeriod() {
+        open(0);
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(BASE - 1));
+        assertNotEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(BASE));
+        // Half open: the trial is out, so nothing else goes through
+        assertTrue(breaker.isOpen());
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(BASE));
+    }
+
+    @Test
+    public void trialSuccessCloses() {
+        open(0);
+        long trial = breaker.tryAcquire(BASE);
+        breaker.onSuccess(trial);
+        assertFalse(breaker.isOpen());
+        assertNotEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(BASE));
+    }
+
+    @Test
+    public void trialFailureReopensForLongerUpToTheMax() {
+        open(0);
+        long trial = breaker.tryAcquire(BASE);
+        assertTrue(breaker.onFailure(trial, BASE, fixed(1)));
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(BASE + 2 * BASE - 1));
+        trial = breaker.tryAcquire(BASE + 2 * BASE);
+        assertNotEquals(CircuitBreaker.REFUSED, trial);
+
+        long now = 3 * BASE;
+        assertTrue(breaker.onFailure(trial, now, fixed(1)));
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(now + MAX - 1));
+        assertNotEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(now + MAX));
+    }
+
+    @Test
+    public void openPeriodIsJitteredWithinHalfToAll() {
+        open(0, fixed(0));
+        assertNotEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(BASE / 2));
+
+        CircuitBreaker seeded = new CircuitBreaker(1, 1000, 3000);
+        Random random = new Random(42);
+        long now = 0;
+        long permit = seeded.tryAcquire(now);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(seeded.onFailure(permit, now, random));
+            long open = 0;
+            while ((permit = seeded.tryAcquire(now + open)) == CircuitBreaker.REFUSED) {
+                open += TimeUnit.MILLISECONDS.toNanos(10);
+            }
+            long nominal = Math.min(BASE << Math.min(i, 2), MAX);
+            assertTrue("open for " + open, open >= nominal / 2 && open <= nominal);
+            now += open;
+        }
+    }
+
+    @Test
+    public void staleSuccessKeepsTheBreakerOpen() {
+        // Let through while closed, answered after the breaker opened
+        long stale = breaker.tryAcquire(0);
+        open(0);
+        breaker.onSuccess(stale);
+        assertTrue(breaker.isOpen());
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(BASE - 1));
+
+        // The trial still decides, and the backoff was not reset
+        long trial = breaker.tryAcquire(BASE);
+        breaker.onSuccess(stale);
+        assertTrue(breaker.isOpen());
+        breaker.onFailure(trial, BASE, fixed(1));
+        assertEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(BASE + 2 * BASE - 1));
+    }
+
+    @Test
+    public void staleFailureLeavesTheTrialOut() {
+        long stale = breaker.tryAcquire(0);
+        open(0);
+        long trial = breaker.tryAcquire(BASE);
+
+        // Answered after the trial went out: neither reopens nor doubles the backoff
+        assertFalse(breaker.onFailure(stale, BASE, fixed(1)));
+        breaker.onSuccess(trial);
+        assertFalse(breaker.isOpen());
+
+        // Backoff starts again from the base period
+        open(2 * BASE);
+        assertNotEquals(CircuitBreaker.REFUSED, breaker.tryAcquire(3 * BASE));
+    }
+
+    @Test
+    public void closedEraPermitsAreStaleAfterRecovery() {
+        long stale = breaker.tryAcquire(0);
+        open(0);
+        breaker.onSuccess(breaker.tryAcquire(BASE));
+        for (int i = 0; i < 5; i++) {
+            assertFalse(breaker.onFailure(stale, BASE, fixed(1)));
+        }
+        assertFalse(breaker.isOpen());
+    }
+
+    private void open(long now) {
+        open(now, fixed(1));
+    }
+
+    private void open(long now, Random random) {
+        while (!breaker.onFailure(breaker.tryAcquire(now), now, random)) {
+            // Up to the threshold
+        }
+    }
+
+    /**
+     * @return A Random whose nextDouble is always {@code value}, which
+     * pins the jitter to one end of its range
+     */
+    private static Random fixed(final double value) {
+        return new Random() {
+            @Override
+            public double nextDouble() {
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.biblequotewidget;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+public class CorpusPackTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] baseStore;
+    private byte[] newStore;
+    private File base;
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        baseStore = new byte[200 * 1024];
+        new Random(42).nextBytes(baseStore);
+        // Version 2: a middle section replaced, the rest unchanged
+        ByteArrayOutputStream changed = new ByteArrayOutputStream();
+        changed.write(baseStore, 0, 1000);
+        changed.write("In the beginning was the Word".getBytes("UTF-8"));
+        changed.write(baseStore, 5000, baseStore.length - 5000);
+        newStore = changed.toByteArray();
+
+        base = folder.newFile("kjv.bqv");
+        Files.write(base.toPath(), baseStore);
+        target = new File(folder.getRoot(), "kjv.bqv.tmp");
+    }
+
+    @Test
+    public void unpackWritesTheStore() throws IOException {
+        CorpusPack.unpack(new ByteArrayInputStream(gzip(newStore)), target, sha256(newStore));
+
+        assertArrayEquals(newStore, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void unpackRejectsBadHash() throws IOException {
+        try {
+            CorpusPack.unpack(new ByteArrayInputStream(gzip(newStore)), target, sha256(baseStore));
+            fail("Store with the wrong digest was accepted");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Checksum mismatch"));
+        }
+    }
+
+    @Test
+    public void unpackRejectsTruncatedPack() {
+        byte[] pack = gzip(newStore);
+        byte[] truncated = Arrays.copyOf(pack, pack.length / 2);
+        try {
+            CorpusPack.unpack(new ByteArrayInputStream(truncated), target, sha256(newStore));
+            fail("Truncated pack was accepted");
+        } catch (IOException expected) {
+            // Ends before the gzip trailer
+        }
+    }
+
+    @Test
+    public void goodDeltaRebuildsTheNewStore() throws IOException {
+        byte[] delta = delta(1, baseStore);
+
+        CorpusPack.applyDelta(new ByteArrayInputStream(delta), base, 1, target, sha256(newStore));
+
+        assertArrayEquals(newStore, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void deltaRejectsBadHash() throws IOException {
+        byte[] delta = delta(1, baseStore);
+        try {
+            CorpusPack.applyDelta(new ByteArrayInputStream(delta), base, 1, target, sha256(baseStore));
+            fail("Rebuilt store with the wrong digest was accepted");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Checksum mismatch"));
+        }
+    }
+
+    @Test
+    public void deltaRejectsOtherBase() throws IOException {
+        byte[] otherBase = Arrays.copyOf(baseStore, baseStore.length);
+        otherBase[0]++;
+        byte[] delta = delta(1, otherBase);
+        try {
+            CorpusPack.applyDelta(new ByteArrayInputStream(delta), base, 1, target, sha256(newStore));
+            fail("Delta for another base was applied");
+        } catch (IOException expected) {
+            assertFalse(expected.getMessage().startsWith("Checksum mismatch"));
+        }
+        try {
+            CorpusPack.applyDelta(new ByteArrayInputStream(delta(1, baseStore)), base, 2, target,
+                    sha256(newStore));
+            fail("Delta from another version was applied");
+        } catch (IOException expected) {
+            assertFalse(expected.getMessage().startsWith("Checksum mismatch"));
+        }
+    }
+
+    @Test
+    public void deltaRejectsTruncatedDelta() throws IOException {
+        byte[] delta = delta(1, baseStore);
+        byte[] truncated = Arrays.copyOf(delta, delta.length / 2);
+        try {
+            CorpusPack.applyDelta(new ByteArrayInputStream(truncated), base, 1, target, sha256(newStore));
+            fail("Truncated delta was applied");
+        } catch (IOException expected) {
+            // Ends before the END op or the gzip trailer
+        }
+    }
+
+    /**
+     * @return A gzip delta from version 1 to 2 that rebuilds newStore
+     */
+    private byte[] delta(int fromVersion, byte[] baseForDigest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CorpusPack.DELTA_MAGIC);
+        out.writeInt(fromVersion);
+        out.writeInt(fromVersion + 1);
+        out.write(digest(baseForDigest));
+        out.writeByte(CorpusPack.OP_COPY);
+        out.writeInt(0);
+        out.writeInt(1000);
+        byte[] inserted = "In the beginning was the Word".getBytes("UTF-8");
+        out.writeByte(CorpusPack.OP_INSERT);
+        out.writeInt(inserted.length);
+        out.write(inserted);
+        out.writeByte(CorpusPack.OP_COPY);
+        out.writeInt(5000);
+        out.writeInt(baseStore.length - 5000);
+        out.writeByte(CorpusPack.OP_END);
+        out.flush();
+        return gzip(bytes.toByteArray());
+    }
+
+    private static byte[] gzip(byte[] data) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(data);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] digest(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        return CorpusPack.toHex(digest(data));
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.biblequotewidget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class KeyedPermutationTest {
+    @Test
+    public void isABijectionForEverySize() {
+        // Powers of four fill the Feistel range; the others need cycle walking
+        for (int size : new int[] { 1, 2, 3, 4, 5, 16, 17, 1000, 31102 }) {
+            KeyedPermutation permutation = new KeyedPermutation(size, KeyedPermutation.mix(size));
+            boolean[] seen = new boolean[size];
+            for (int position = 0; position < size; position++) {
+                int value = permutation.get(position);
+                assertTrue("size " + size + " gave " + value, value >= 0 && value < size);
+                assertFalse("size " + size + " repeated " + value, seen[value]);
+                seen[value] = true;
+            }
+        }
+    }
+
+    @Test
+    public void sameKeyGivesSameOrder() {
+        KeyedPermutation first = new KeyedPermutation(1000, 42);
+        KeyedPermutation second = new KeyedPermutation(1000, 42);
+        for (int position = 0; position < 1000; position++) {
+            assertEquals(first.get(position), second.get(position));
+        }
+    }
+
+    @Test
+    public void otherKeyGivesOtherOrder() {
+        KeyedPermutation first = new KeyedPermutation(1000, 42);
+        KeyedPermutation second = new KeyedPermutation(1000, 43);
+        int same = 0;
+        for (int position = 0; position < 1000; position++) {
+            if (first.get(position) == second.get(position)) {
+                same++;
+            }
+        }
+        assertTrue("orders agree at " + same + " positions", same < 50);
+    }
+
+    @Test
+    public void positionsWrapAroundTheSize() {
+        KeyedPermutation permutation = new KeyedPermutation(31102, 7);
+        assertEquals(permutation.get(5), permutation.get(31102 + 5));
+        assertEquals(permutation.get(31101), permutation.get(-1));
+        assertEquals(permutation.get(Long.MAX_VALUE % 31102), permutation.get(Long.MAX_VALUE));
+        int wrapped = (int) (Long.MIN_VALUE % 31102) + 31102;
+        assertEquals(permutation.get(wrapped), permutation.get(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void rejectsEmptySize() {
+        try {
+            new KeyedPermutation(0, 1);
+            fail("Empty permutation was created");
+        } catch (IllegalArgumentException expected) {
+            // Nothing to permute
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.biblequotewidget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SavedQuoteLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private SavedQuoteLog log;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "saved_quotes.log");
+        log = new SavedQuoteLog(file);
+    }
+
+    @Test
+    public void replaysRecordsInOrder() throws IOException {
+        assertFalse(log.exists());
+        log.appendAdd(0, "Jesus wept.", "John 11:35", "love");
+        log.appendAdd(1, "The LORD is my shepherd; I shall not want.", "Psalms 23:1", "peace");
+        log.appendDelete(0);
+        log.appendAdd(2, "In the beginning", "Genesis 1:1", "faith");
+
+        Recorder recorder = new Recorder();
+        assertEquals(0, log.replay(recorder));
+        assertEquals(Arrays.asList("+0 John 11:35 love", "+1 Psalms 23:1 peace", "-0", "+2 Genesis 1:1 faith"),
+                recorder.records);
+        assertEquals("Jesus wept.", recorder.quotes.get(0));
+    }
+
+    @Test
+    public void cutsATornTail() throws IOException {
+        log.appendAdd(0, "Jesus wept.", "John 11:35", "love");
+        long intact = file.length();
+        log.appendAdd(1, "The LORD is my shepherd; I shall not want.", "Psalms 23:1", "peace");
+        byte[] data = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(data, data.length - 3));
+
+        Recorder recorder = new Recorder();
+        assertEquals(data.length - 3 - intact, log.replay(recorder));
+        assertEquals(Arrays.asList("+0 John 11:35 love"), recorder.records);
+        assertEquals(intact, file.length());
+
+        // Appends after the cut replay cleanly
+        log.appendDelete(0);
+        recorder = new Recorder();
+        assertEquals(0, log.replay(recorder));
+        assertEquals(Arrays.asList("+0 John 11:35 love", "-0"), recorder.records);
+    }
+
+    @Test
+    public void skipsADamagedRecordAndKeepsTheRest() throws IOException {
+        log.appendAdd(0, "Jesus wept.", "John 11:35", "love");
+        int second = (int) file.length();
+        log.appendAdd(1, "The LORD is my shepherd; I shall not want.", "Psalms 23:1", "peace");
+        int third = (int) file.length();
+        log.appendAdd(2, "In the beginning", "Genesis 1:1", "faith");
+        log.appendDelete(0);
+        byte[] data = Files.readAllBytes(file.toPath());
+        // Flip a byte of the second record's text; its checksum no longer matches
+        data[second + 10] ^= 0x20;
+        Files.write(file.toPath(), data);
+
+        Recorder recorder = new Recorder();
+        assertEquals(third - second, log.replay(recorder));
+        assertEquals(Arrays.asList("+0 John 11:35 love", "+2 Genesis 1:1 faith", "-0"), recorder.records);
+        // Nothing after the damage is cut
+        assertEquals(data.length, file.length());
+    }
+
+    @Test
+    public void skipsMalformedText() throws IOException {
+        log.appendAdd(0, "Jesus wept.", "John 11:35", "love");
+        int second = (int) file.length();
+        log.appendAdd(1, "Rejoice", "Philippians 4:4", "joy");
+        log.appendDelete(1);
+        byte[] data = Files.readAllBytes(file.toPath());
+        // A lone continuation byte in the quote: readUTF throws UTFDataFormatException
+        data[second + 1 + 4 + 2] = (byte) 0x80;
+        Files.write(file.toPath(), data);
+
+        Recorder recorder = new Recorder();
+        assertTrue(log.replay(recorder) > 0);
+        assertEquals(Arrays.asList("+0 John 11:35 love", "-1"), recorder.records);
+    }
+
+    @Test
+    public void rewriteKeepsIdsAndTheNextId() throws IOException {
+        log.appendAdd(0, "Jesus wept.", "John 11:35", "love");
+        log.appendAdd(3, "Rejoice", "Philippians 4:4", "joy");
+        List<SavedQuoteLog.Entry> live = Arrays.asList(
+                entry(0, "Jesus wept.", "John 11:35", "love"),
+                entry(3, "Rejoice", "Philippians 4:4", "joy"));
+
+        log.rewrite(live, 6);
+
+        Recorder recorder = new Recorder();
+        assertEquals(0, log.replay(recorder));
+        // A tombstone for the newest id keeps ids increasing after it was deleted
+        assertEquals(Arrays.asList("+0 John 11:35 love", "+3 Philippians 4:4 joy", "-5"), recorder.records);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    private static SavedQuoteLog.Entry entry(final int id, final String quote, final String reference,
+            final String theme) {
+        return new SavedQuoteLog.Entry() {
+            @Override
+            public int getId() {
+                return id;
+            }
+
+            @Override
+            public String getQuote() {
+                return quote;
+            }
+
+            @Override
+            public String getReference() {
+                return reference;
+            }
+
+            @Override
+            public String getTheme() {
+                return theme;
+            }
+        };
+    }
+
+    private static class Recorder implements SavedQuoteLog.Visitor {
+        final List<String> records = new ArrayList<>();
+        final List<String> quotes = new ArrayList<>();
+
+        @Override
+        public void onAdd(int id, String quote, String reference, String theme) {
+            records.add("+" + id + " " + reference + " " + theme);
+            quotes.add(quote);
+        }
+
+        @Override
+        public void onDelete(int id) {
+            records.add("-" + id);
+        }
+    }
+}
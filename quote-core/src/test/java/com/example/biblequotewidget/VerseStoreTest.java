@@ -0,0 +1,202 @@
+package com.example.biblequotewidget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class VerseStoreTest {
+    private static final int GENESIS = 1;
+    private static final int PSALMS = 19;
+    private static final int JOHN = 43;
+    private static final String JOHN_3_16 = "For God so loved the world, that he gave his only begotten Son, "
+            + "that whosoever believeth in him should not perish, but have everlasting life.";
+    private static final String JOHN_11_35 = "Jesus wept.";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String longVerse;
+    private VerseStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (text.length() <= 320) {
+            text.append("And the word was with God, and the word was God. ");
+        }
+        longVerse = text.toString().trim();
+        store = VerseStore.open(write("kjv.bqv", JOHN_3_16));
+    }
+
+    /**
+     * Write a small store, adding its verses out of order
+     */
+    private File write(String name, String john316) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        new VerseStore.Writer("kjv")
+                .add(JOHN, 11, 35, JOHN_11_35)
+                .add(PSALMS, 23, 1, "The LORD is my shepherd; I shall not want.")
+                .add(JOHN, 3, 16, john316)
+                .add(GENESIS, 1, 1, "In the beginning God created the heaven and the earth.")
+                .add(JOHN, 1, 1, longVerse)
+                .writeTo(file);
+        return file;
+    }
+
+    @Test
+    public void decodesTextAndReferences() {
+        assertEquals(3, VerseStore.VERSION);
+        assertEquals("kjv", store.getTranslation());
+        assertEquals(5, store.getVerseCount());
+
+        int index = store.indexOf("John 3:16");
+        assertEquals(JOHN_3_16, store.getText(index));
+        assertEquals("John 3:16", store.getReference(index));
+        assertEquals(JOHN, store.getBook(index));
+        assertEquals(3, store.getChapter(index));
+        assertEquals(16, store.getVerse(index));
+        assertEquals(JOHN_11_35, store.getText(store.indexOf(JOHN, 11, 35)));
+        assertEquals(longVerse, store.getText(store.indexOf("John 1:1")));
+        assertEquals("The LORD is my shepherd; I shall not want.", store.getText(store.indexOf("Psalms 23:1")));
+    }
+
+    @Test
+    public void ordersVersesByBookChapterAndVerse() {
+        assertEquals("Genesis 1:1", store.getReference(0));
+        assertEquals("Psalms 23:1", store.getReference(1));
+        assertEquals("John 1:1", store.getReference(2));
+        assertEquals("John 3:16", store.getReference(3));
+        assertEquals("John 11:35", store.getReference(4));
+        assertEquals(1, store.getVerseCount(GENESIS));
+        assertEquals(3, store.getVerseCount(JOHN));
+        assertEquals(0, store.getVerseCount(2));
+    }
+
+    @Test
+    public void missingVersesAreNotFound() {
+        assertEquals(-1, store.indexOf("John 3:17"));
+        assertEquals(-1, store.indexOf("Exodus 1:1"));
+        assertEquals(-1, store.indexOf("John 3:16-18"));
+        assertEquals(-1, store.indexOf("John 3"));
+        assertEquals(-1, store.indexOf(0, 1, 1));
+        assertEquals(-1, store.indexOf(BibleBooks.BOOK_COUNT + 1, 1, 1));
+    }
+
+    @Test
+    public void poolsCoverTheGivenBooksInOrder() {
+        int[] books = { PSALMS, JOHN };
+        assertEquals(4, store.getPoolSize(books));
+        assertEquals("Psalms 23:1", store.getReference(store.poolIndex(books, 0)));
+        assertEquals("John 11:35", store.getReference(store.poolIndex(books, 3)));
+        assertEquals(-1, store.poolIndex(books, 4));
+    }
+
+    @Test
+    public void lengthPoolsHoldOnlyVersesThatFit() {
+        int[] john = { JOHN };
+        assertEquals(0, VerseStore.lengthClass(JOHN_11_35.length()));
+        assertEquals(2, VerseStore.lengthClass(JOHN_3_16.length()));
+        assertEquals(VerseStore.ANY_LENGTH, VerseStore.lengthClass(longVerse.length()));
+
+        assertEquals(1, store.getPoolSize(john, 0));
+        assertEquals(JOHN_11_35, store.getText(store.poolIndex(john, 0, 0)));
+        assertEquals(1, store.getPoolSize(john, 1));
+        assertEquals(2, store.getPoolSize(john, 2));
+        assertEquals(3, store.getPoolSize(john, VerseStore.ANY_LENGTH));
+        for (int position = 0; position < 2; position++) {
+            int index = store.poolIndex(john, 2, position);
+            assertTrue(store.getText(index).length() <= 150);
+        }
+    }
+
+    @Test
+    public void maxLengthClassPicksTheLongestThatFits() {
+        assertEquals(VerseStore.ANY_LENGTH, VerseStore.maxLengthClass(0));
+        assertEquals(0, VerseStore.maxLengthClass(30));
+        assertEquals(0, VerseStore.maxLengthClass(60));
+        assertEquals(1, VerseStore.maxLengthClass(149));
+        assertEquals(2, VerseStore.maxLengthClass(150));
+        assertEquals(VerseStore.ANY_LENGTH - 1, VerseStore.maxLengthClass(10000));
+    }
+
+    @Test
+    public void checksumFollowsTheText() throws IOException {
+        VerseStore same = VerseStore.open(write("same.bqv", JOHN_3_16));
+        VerseStore changed = VerseStore.open(write("changed.bqv", JOHN_3_16.replace("world", "earth")));
+
+        assertEquals(store.getChecksum(), same.getChecksum());
+        assertNotEquals(store.getChecksum(), changed.getChecksum());
+        // Same verses with other text: indexes still line up
+        assertTrue(store.hasSameIndex(changed));
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        File file = folder.newFile("notes.txt");
+        Files.write(file.toPath(), new byte[2048]);
+        try {
+            VerseStore.open(file);
+            fail("Opened a file that is not a verse store");
+        } catch (IOException expected) {
+            // Bad magic
+        }
+    }
+
+    @Test
+    public void rejectsCorruptHeaders() throws IOException {
+        byte[] valid = Files.readAllBytes(write("valid.bqv", JOHN_3_16).toPath());
+        // An earlier format version
+        assertCorrupt(withInt(valid, 4, VerseStore.VERSION - 1));
+        // Verse count past the end of the file, negative, and text offset past the end
+        assertCorrupt(withInt(valid, 16, 0x10000000));
+        assertCorrupt(withInt(valid, 16, -1));
+        assertCorrupt(withInt(valid, 20, valid.length + 1));
+        // Book table out of order
+        assertCorrupt(withInt(valid, 24 + (JOHN - 1) * 4, 0));
+        // Cut off in the entries
+        assertCorrupt(Arrays.copyOf(valid, 24 + 67 * 4 + 8));
+    }
+
+    private static byte[] withInt(byte[] bytes, int offset, int value) {
+        byte[] copy = bytes.clone();
+        ByteBuffer.wrap(copy).putInt(offset, value);
+        return copy;
+    }
+
+    private void assertCorrupt(byte[] bytes) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), bytes);
+        try {
+            VerseStore.open(file);
+            fail("Opened a corrupt verse store");
+        } catch (IOException expected) {
+            // Caught by the header checks rather than failing on a later read
+        }
+    }
+
+    @Test
+    public void writerRejectsDuplicateVerses() {
+        try {
+            new VerseStore.Writer("kjv")
+                    .add(JOHN, 3, 16, JOHN_3_16)
+                    .add(JOHN, 3, 16, JOHN_3_16)
+                    .writeTo(new File(folder.getRoot(), "dup.bqv"));
+            fail("Wrote a store with the same verse twice");
+        } catch (IOException expected) {
+            assertFalse(new File(folder.getRoot(), "dup.bqv").exists());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.biblequotewidget;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class VerseStoreToolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File source(String text) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void buildsAStoreFromTabSeparatedText() throws IOException {
+        File source = source("# KJV sample\n"
+                + "JHN\t11\t35\tJesus wept.\n"
+                + "\n"
+                + "Genesis\t1\t1\tIn the beginning God created\n"
+                + "1JN\t4\t8\tHe that loveth not knoweth not God;   for God is love.\n"
+                + "19\t23\t1\tThe LORD is my shepherd; I shall not want.\n");
+        File target = new File(folder.getRoot(), "kjv.bqv");
+
+        assertEquals(4, VerseStoreTool.build(source, "kjv", target));
+
+        VerseStore store = VerseStore.open(target);
+        assertEquals("kjv", store.getTranslation());
+        assertEquals(4, store.getVerseCount());
+        assertEquals("Genesis 1:1", store.getReference(0));
+        assertEquals("The LORD is my shepherd; I shall not want.", store.getText(store.indexOf(19, 23, 1)));
+        // White space runs collapsed
+        assertEquals("He that loveth not knoweth not God; for God is love.", store.getText(store.indexOf(62, 4, 8)));
+    }
+
+    @Test
+    public void rejectsMalformedLinesWithoutWriting() throws IOException {
+        File target = new File(folder.getRoot(), "kjv.bqv");
+        String[] bad = {
+            "JHN\t11\tJesus wept.\n",
+            "XYZ\t11\t35\tJesus wept.\n",
+            "JHN\televen\t35\tJesus wept.\n",
+            "JHN\t11\t35\t \n",
+            "JHN\t11\t35\tJesus wept.\nJHN\t11\t35\tJesus wept.\n",
+            "# nothing\n",
+        };
+        for (String text : bad) {
+            try {
+                VerseStoreTool.build(source(text), "kjv", target);
+                fail("Built a store from " + text);
+            } catch (IOException expected) {
+                assertFalse(target.exists());
+            }
+        }
+    }
+}